@@ -0,0 +1,24 @@
+#!/bin/bash
+
+# Load benchmarks over synthetic embeddings, one JVM per heap size.
+#   ./bench.sh [nwords] [vec_sz] [reps] [nchks...]
+# Heap sizes to sweep come from HEAPS, e.g. HEAPS="2g 4g" ./bench.sh 1000000
+
+SEP=:
+case "`uname`" in
+    CYGWIN* )
+      SEP=";"
+      ;;
+esac
+
+if [ -z "$TEST_JAVA_HOME" ]; then
+  JAVA_CMD="java"
+else
+  JAVA_CMD="$TEST_JAVA_HOME/bin/java"
+fi
+
+HEAPS=${HEAPS:-"2g 4g 8g"}
+
+for h in $HEAPS; do
+  $JAVA_CMD -Xmx$h -Xms$h -ea -cp "build/*${SEP}lib/*" embeddings.LoadBenchmark "$@" || exit $?
+done
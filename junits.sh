@@ -49,7 +49,7 @@ JUNIT_RUNNER="org.junit.runner.JUnitCore"
 # add 'sort' to get determinism on order of tests on different machines
 # methods within a class can still reorder due to junit?
 # '/usr/bin/sort' needed to avoid windows native sort when run in cygwin
-(cd src/test/java; /usr/bin/find . -name '*.java' | cut -c3- | sed 's/.....$//' | sed -e 's/\//./g') | grep -v ComparisonUtils | /usr/bin/sort > $OUTDIR/tests.txt
+(cd src/test/java; /usr/bin/find . -name '*.java' | cut -c3- | sed 's/.....$//' | sed -e 's/\//./g') | grep -v "ComparisonUtils\|SyntheticBin" | /usr/bin/sort > $OUTDIR/tests.txt
 
 # Launch last driver JVM.  All output redir'd at the OS level to sandbox files.
 echo Running junits...
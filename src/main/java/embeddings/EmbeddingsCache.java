@@ -0,0 +1,149 @@
+package embeddings;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Size-bounded cache of decoded vectors and of mostSimilar results.
+ *
+ * Each of the two caches is a segmented LRU: new entries land in a probation segment and are promoted to a
+ * protected segment (80% of the budget) on their second hit. A burst of one-off lookups then only churns the
+ * probation segment and can't flush the hot words out of the protected one. Each cache is split into
+ * NSTRIPES independently locked stripes, picked by the word's hash, so concurrent readers rarely contend.
+ *
+ * Result entries keep the largest n asked for a word, so a cached (word,n) also serves every smaller n.
+ *
+ * Every entry records the overlay Snapshot it was computed against; once the overlay changes, older entries
+ * are treated as misses and get replaced on the next computation. This keeps cached answers consistent with
+ * put/remove without any locking between the overlay and the cache.
+ */
+class EmbeddingsCache {
+  private static final int NSTRIPES = 16;
+  private static final int ENTRY_OVERHEAD = 96; // rough object, map node and key overhead per entry
+
+  private final SLRU<float[]>[] _vecs;
+  private final SLRU<Result>[] _results;
+  final LongAdder _vecHits = new LongAdder(), _vecMisses = new LongAdder();
+  final LongAdder _resHits = new LongAdder(), _resMisses = new LongAdder();
+  final LongAdder _evictions = new LongAdder();
+
+  EmbeddingsCache(long vecBytes, long resultBytes) {
+    if( vecBytes < 0 || resultBytes < 0 ) throw new IllegalArgumentException("cache sizes must be >= 0");
+    _vecs = new SLRU[NSTRIPES];
+    _results = new SLRU[NSTRIPES];
+    for(int i=0;i<NSTRIPES;++i) {
+      _vecs[i] = new SLRU<>(vecBytes/NSTRIPES);
+      _results[i] = new SLRU<>(resultBytes/NSTRIPES);
+    }
+  }
+
+  private static int stripe(BufferedBytes w) {
+    int h = w.hashCode();
+    return (h ^ (h>>>16)) & (NSTRIPES-1);
+  }
+
+  // the cache may outlive the caller's buffer; keys get their own bytes
+  private static BufferedBytes copy(BufferedBytes w) {
+    return new BufferedBytes(Arrays.copyOfRange(w._buf,w._off,w._off+w._len));
+  }
+
+  /** @return the cached vector of w computed against snap, or null */
+  float[] vector(BufferedBytes w, EmbeddingsOverlay.Snapshot snap) {
+    float[] v = _vecs[stripe(w)].get(w,snap);
+    (v==null ? _vecMisses : _vecHits).increment();
+    return v;
+  }
+
+  void putVector(BufferedBytes w, float[] v, EmbeddingsOverlay.Snapshot snap) {
+    _vecs[stripe(w)].put(copy(w),v,snap,ENTRY_OVERHEAD + w._len + 4L*v.length,this);
+  }
+
+  /** @return the n most similar words to w computed against snap, or null if not cached for n or more */
+  WordEmbeddings.SimilarWord[] mostSimilar(BufferedBytes w, int n, EmbeddingsOverlay.Snapshot snap) {
+    Result r = _results[stripe(w)].get(w,snap);
+    WordEmbeddings.SimilarWord[] res = null;
+    if( r!=null && r._n >= n ) res = Arrays.copyOf(r._words,Math.min(n,r._words.length));
+    (res==null ? _resMisses : _resHits).increment();
+    return res;
+  }
+
+  void putMostSimilar(BufferedBytes w, int n, WordEmbeddings.SimilarWord[] words, EmbeddingsOverlay.Snapshot snap) {
+    SLRU<Result> s = _results[stripe(w)];
+    Result old = s.get(w,snap);
+    if( old!=null && old._n >= n ) return; // already holds at least as much
+    s.put(copy(w),new Result(n,words),snap,ENTRY_OVERHEAD + w._len + 48L*words.length,this);
+  }
+
+  long bytes() {
+    long b=0;
+    for(int i=0;i<NSTRIPES;++i) b += _vecs[i].bytes() + _results[i].bytes();
+    return b;
+  }
+
+  private static final class Result {
+    final int _n; // number of words asked for; _words may be shorter for tiny vocabularies
+    final WordEmbeddings.SimilarWord[] _words;
+    Result(int n, WordEmbeddings.SimilarWord[] words) { _n=n; _words=words; }
+  }
+
+  private static final class Entry<V> {
+    final V _val;
+    final EmbeddingsOverlay.Snapshot _snap;
+    final long _weight;
+    Entry(V val, EmbeddingsOverlay.Snapshot snap, long weight) { _val=val; _snap=snap; _weight=weight; }
+  }
+
+  /** One stripe of a segmented LRU. LinkedHashMaps in access order keep each segment's LRU entry first. */
+  private static final class SLRU<V> {
+    final long _max, _protMax;
+    final LinkedHashMap<BufferedBytes,Entry<V>> _probation = new LinkedHashMap<>(16,0.75f,true);
+    final LinkedHashMap<BufferedBytes,Entry<V>> _protected = new LinkedHashMap<>(16,0.75f,true);
+    long _probBytes, _protBytes;
+
+    SLRU(long max) { _max=max; _protMax=max*4/5; }
+
+    synchronized long bytes() { return _probBytes + _protBytes; }
+
+    synchronized V get(BufferedBytes w, EmbeddingsOverlay.Snapshot snap) {
+      Entry<V> e = _protected.get(w);
+      if( e==null ) {
+        e = _probation.remove(w);
+        if( e==null ) return null;
+        // second hit: promote, and demote the protected segment's LRU entries to make room
+        _probBytes -= e._weight;
+        _protected.put(w,e);
+        _protBytes += e._weight;
+        while( _protBytes > _protMax && _protected.size() > 1 ) {
+          Iterator<Map.Entry<BufferedBytes,Entry<V>>> it = _protected.entrySet().iterator();
+          Map.Entry<BufferedBytes,Entry<V>> lru = it.next();
+          it.remove();
+          _protBytes -= lru.getValue()._weight;
+          _probation.put(lru.getKey(),lru.getValue());
+          _probBytes += lru.getValue()._weight;
+        }
+      }
+      return e._snap==snap ? e._val : null; // computed before the last overlay change => stale
+    }
+
+    synchronized void put(BufferedBytes w, V v, EmbeddingsOverlay.Snapshot snap, long weight, EmbeddingsCache c) {
+      if( weight > _max ) return;
+      Entry<V> old = _protected.remove(w);
+      if( old!=null ) _protBytes -= old._weight;
+      else if( (old=_probation.remove(w))!=null ) _probBytes -= old._weight;
+      _probation.put(w,new Entry<>(v,snap,weight));
+      _probBytes += weight;
+      while( _probBytes + _protBytes > _max ) {
+        LinkedHashMap<BufferedBytes,Entry<V>> victims = _probation.isEmpty() ? _protected : _probation;
+        Iterator<Map.Entry<BufferedBytes,Entry<V>>> it = victims.entrySet().iterator();
+        long wt = it.next().getValue()._weight;
+        it.remove();
+        if( victims==_probation ) _probBytes -= wt;
+        else _protBytes -= wt;
+        c._evictions.increment();
+      }
+    }
+  }
+}
@@ -0,0 +1,117 @@
+package embeddings;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.RecursiveAction;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * Exports decoded word embeddings as a dense row-major float32 matrix plus a vocabulary file.
+ *
+ * The matrix is either raw little-endian float32 or a .npy file (the same bytes behind a numpy header). Rows are
+ * decoded in parallel straight into memory-mapped windows of the output file, so the float matrix never lives
+ * on the heap. The vocabulary file holds one word per line, as raw bytes, in row order.
+ */
+class EmbeddingsExporter {
+  private static final int MAX_WINDOW = 16<<20; // bytes mapped by a single leaf task
+
+  /**
+   * @param em decodes the records
+   * @param recs records to export, in row order
+   * @param matrixPath write the matrix here
+   * @param vocabPath write the words here; may be null
+   * @param npy true for a .npy file; false for raw little-endian float32
+   */
+  static void export(WordEmbeddings em, BufferedBytes[] recs, String matrixPath, String vocabPath, boolean npy) {
+    int vsz = em._vec_sz;
+    long rowBytes = 4L*vsz;
+    byte[] header = npy ? npyHeader(recs.length,vsz) : new byte[0];
+    try( RandomAccessFile raf = new RandomAccessFile(matrixPath,"rw") ) {
+      raf.setLength(0); // drop any stale contents past the new end
+      raf.setLength(header.length + rowBytes*recs.length);
+      raf.write(header);
+      FileChannel fc = raf.getChannel();
+      int rowsPerLeaf = (int)Math.max(1,Math.min(MAX_WINDOW/rowBytes,recs.length/Math.max(1,em._nchks)));
+      new ExportTask(em,recs,fc,header.length,0,recs.length,rowsPerLeaf).invoke();
+    } catch( IOException e ) {
+      throw new RuntimeException(e);
+    }
+    if( vocabPath!=null ) writeVocab(recs,vocabPath);
+  }
+
+  private static void writeVocab(BufferedBytes[] recs, String path) {
+    try( OutputStream os = new BufferedOutputStream(new FileOutputStream(path),1<<20) ) {
+      for( BufferedBytes r: recs ) {
+        os.write(r._buf,r._off,r._len);
+        os.write('\n');
+      }
+    } catch( IOException e ) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // version 1.0 .npy header, padded so the data starts on a 64 byte boundary
+  static byte[] npyHeader(int nrows, int ncols) {
+    StringBuilder sb = new StringBuilder("{'descr': '<f4', 'fortran_order': False, 'shape': (")
+        .append(nrows).append(", ").append(ncols).append("), }");
+    int len = 10 + sb.length() + 1; // magic, version, header length, dict, newline
+    for(int pad=(64 - len%64)%64; pad>0; --pad) sb.append(' ');
+    sb.append('\n');
+    byte[] dict = sb.toString().getBytes(US_ASCII);
+    ByteBuffer bb = ByteBuffer.allocate(10 + dict.length).order(ByteOrder.LITTLE_ENDIAN);
+    bb.put((byte)0x93).put("NUMPY".getBytes(US_ASCII)).put((byte)1).put((byte)0);
+    bb.putShort((short)dict.length);
+    bb.put(dict);
+    return bb.array();
+  }
+
+  private static class ExportTask extends RecursiveAction {
+    final WordEmbeddings _em;
+    final BufferedBytes[] _recs;
+    final FileChannel _fc;
+    final long _base; // file offset of row 0
+    final int _lo, _hi;
+    final int _rowsPerLeaf;
+    ExportTask(WordEmbeddings em, BufferedBytes[] recs, FileChannel fc, long base, int lo, int hi, int rowsPerLeaf) {
+      _em=em;
+      _recs=recs;
+      _fc=fc;
+      _base=base;
+      _lo=lo;
+      _hi=hi;
+      _rowsPerLeaf=rowsPerLeaf;
+    }
+
+    @Override protected void compute() {
+      if( _hi - _lo > _rowsPerLeaf ) {
+        int mid = (_lo+_hi)>>>1;
+        invokeAll(new ExportTask(_em,_recs,_fc,_base,_lo,mid,_rowsPerLeaf),
+                  new ExportTask(_em,_recs,_fc,_base,mid,_hi,_rowsPerLeaf));
+        return;
+      }
+      if( _hi <= _lo ) return;
+      int vsz = _em._vec_sz;
+      long rowBytes = 4L*vsz;
+      try {
+        MappedByteBuffer mb = _fc.map(FileChannel.MapMode.READ_WRITE,_base + rowBytes*_lo,rowBytes*(_hi-_lo));
+        mb.order(ByteOrder.LITTLE_ENDIAN);
+        float[] row = new float[vsz];
+        for(int i=_lo;i<_hi;++i) {
+          _em.decode(_recs[i],row);
+          for( float f: row ) mb.putFloat(f);
+        }
+        mb.force();
+      } catch( IOException e ) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,77 @@
+package embeddings;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Append-only overlay of word embeddings layered over the immutable maps built by EmbeddingsParser.
+ *
+ * Added words are stored as records in the same 3-byte quantized layout as the .bin file (word bytes followed by
+ * the vector bytes), so overlay records decode with the same code as base records and can be written straight
+ * back out by EmbeddingsWriter.
+ *
+ * Writes are copy-on-write: a writer copies the current Snapshot, applies its change, and publishes the new
+ * Snapshot with a single volatile write. Readers grab a Snapshot once and never lock, so a reader sees either all
+ * or none of a write. Deletes of base words are recorded as TOMBSTONE entries that shadow the base record.
+ *
+ * Copying the overlay map on each write is cheap as long as the overlay stays small relative to the vocabulary;
+ * fold it back into a new .bin with WordEmbeddings.compact once it grows.
+ */
+class EmbeddingsOverlay {
+
+  static final BufferedBytes TOMBSTONE = new BufferedBytes(new byte[0]);
+
+  static final class Snapshot {
+    final HashMap<BufferedBytes,BufferedBytes> _map; // word -> record, or word -> TOMBSTONE
+    final BufferedBytes[] _live; // overlay records that are not tombstones
+
+    private Snapshot(HashMap<BufferedBytes,BufferedBytes> map) {
+      _map=map;
+      ArrayList<BufferedBytes> live = new ArrayList<>(map.size());
+      for( BufferedBytes bb: map.values() )
+        if( bb!=TOMBSTONE ) live.add(bb);
+      _live = live.toArray(new BufferedBytes[live.size()]);
+    }
+
+    /**
+     * @param w word to lookup
+     * @return the overlay record for w, TOMBSTONE if w was deleted, or null if the overlay knows nothing about w
+     */
+    BufferedBytes get(BufferedBytes w) { return _map.isEmpty() ? null : _map.get(w); }
+
+    /** @return true if the base record for w was replaced or deleted by the overlay */
+    boolean shadows(BufferedBytes w) { return !_map.isEmpty() && _map.containsKey(w); }
+  }
+
+  private volatile Snapshot _snap = new Snapshot(new HashMap<BufferedBytes,BufferedBytes>());
+
+  Snapshot snapshot() { return _snap; }
+
+  /**
+   * Add or replace a word.
+   * @param rec record whose _off/_len span the word, followed in _buf by the quantized vector
+   */
+  synchronized void put(BufferedBytes rec) {
+    HashMap<BufferedBytes,BufferedBytes> map = new HashMap<>(_snap._map);
+    map.remove(rec); // drop the old key too, so the replaced record's bytes can be collected
+    map.put(rec,rec);
+    _snap = new Snapshot(map);
+  }
+
+  /**
+   * Delete a word.
+   * @param w the word to delete
+   * @param inBase true if w is in the base maps and must be shadowed with a tombstone
+   */
+  synchronized void remove(BufferedBytes w, boolean inBase) {
+    HashMap<BufferedBytes,BufferedBytes> map = new HashMap<>(_snap._map);
+    map.remove(w);
+    if( inBase ) {
+      // the tombstone's key must not alias the caller's bytes
+      byte[] b = new byte[w._len];
+      System.arraycopy(w._buf,w._off,b,0,w._len);
+      map.put(new BufferedBytes(b),TOMBSTONE);
+    }
+    _snap = new Snapshot(map);
+  }
+}
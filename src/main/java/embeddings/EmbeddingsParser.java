@@ -1,19 +1,24 @@
 package embeddings;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.RecursiveAction;
 
 /**
  * This class parses word embeddings.
  *
- * Raw bytes of the word embeddings file are read into RAM with concurrent invocations of DiskReadTask.
+ * Raw bytes of the word embeddings file are read into RAM with concurrent invocations of DiskReadTask, and each
+ * chunk is handed to a BuildEmbeddingsTask as soon as it arrives.
  *
  * All of the hot loops are branch free, do no GC, use mostly simple (low-instruction count) ops, and rely on
  * primitives as much as possible.
@@ -24,9 +29,10 @@ public class EmbeddingsParser {
 
   // output
   HashMap<BufferedBytes, BufferedBytes>[] _maps;
+  ArrayList<BufferedBytes>[] _words; // records of each chunk in file order
 
   // header pieces
-  private boolean _str_type; // true => strlen is 2 bytes; false => strlen is 1 byte
+  boolean _str_type; // true => strlen is 2 bytes; false => strlen is 1 byte
   short _vec_sz; // number of elements in a vector
   byte _scale; // power-of-10 exponent
   int _shift; // add this back to each vector value
@@ -35,18 +41,36 @@ public class EmbeddingsParser {
 
   private String _path; // path to the embeddings
   private long _nbytes;
-  private DiskReadTask [] _rtasks;
   private BuildEmbeddingsTask[] _ptasks;
 
+  /**
+   * Default number of chunks read from disk concurrently: half the F/J workers read while the other half
+   * build maps over chunks that have already arrived.
+   */
+  public static final int DEFAULT_READERS = Math.max(1,ForkJoinPool.getCommonPoolParallelism()/2);
+
   public static EmbeddingsParser parse(String path) {
-    return new EmbeddingsParser(path).readFromDisk().buildEmbeddingsMap();
+    return parse(path,DEFAULT_READERS);
+  }
+
+  /**
+   * Parse the embeddings with a bounded number of concurrent disk reads.
+   *
+   * Spinning disks do best with a single reader (reads are then sequential); SSDs and NVMe drives
+   * need several outstanding reads to reach full bandwidth.
+   *
+   * @param path path to the embeddings
+   * @param nreaders max number of chunks read from disk at once
+   * @return the parsed embeddings
+   */
+  public static EmbeddingsParser parse(String path, int nreaders) {
+    return new EmbeddingsParser(path).load(nreaders);
   }
 
   private EmbeddingsParser(String path) {
     File f = new File(_path=path);
     _nbytes = f.length();
     parseHeader(f);
-    _rtasks = new DiskReadTask[_nchks]; // raw disk read to RAM tasks
     _ptasks = new BuildEmbeddingsTask[_nchks]; // map building tasks
   }
 
@@ -83,69 +107,88 @@ public class EmbeddingsParser {
            (( (long)read1(fs) & 0xFF) << 56 ));
   }
 
-  private EmbeddingsParser readFromDisk() {
+  private int chkSize(int i) {
+    boolean last = i==_nchks-1;
+    return last ? (int)(_nbytes - _offs[i]) : (int)(_offs[i+1] - _offs[i]);
+  }
+
+  /**
+   * Read and index all chunks. Disk reads and map building are overlapped: a chunk's map is built as soon
+   * as its bytes are in RAM, so load time approaches max(I/O, parse) rather than their sum.
+   */
+  private EmbeddingsParser load(int nreaders) {
     long start = System.currentTimeMillis();
-    ArrayList<DiskReadTask> rtasks = new ArrayList<>();
-    for(int i=0;i<_rtasks.length;++i) {
-      boolean last = i==_rtasks.length-1;
-      int chkSize = last ? (int)(_nbytes - _offs[i]) : (int)(_offs[i+1] - _offs[i]);
-      _rtasks[i] = new DiskReadTask(i,_path,_offs[i],chkSize);
-      rtasks.add(_rtasks[i]);
+    nreaders = Math.max(1,Math.min(nreaders,_nchks));
+    try( FileChannel fc = FileChannel.open(Paths.get(_path),StandardOpenOption.READ) ) {
+      ArrayList<DiskReadTask> rtasks = new ArrayList<>();
+      for(int i=0;i<nreaders;++i)
+        rtasks.add(new DiskReadTask(i,nreaders,fc,this));
+      ForkJoinTask.invokeAll(rtasks);
+    } catch( IOException e ) {
+      throw new RuntimeException(e);
     }
-    ForkJoinTask.invokeAll(rtasks);
-    System.out.println("Disk to RAM read in " + (System.currentTimeMillis() - start)/1000. + " seconds" );
+    HashMap<BufferedBytes,BufferedBytes> maps[] = new HashMap[_nchks];
+    ArrayList<BufferedBytes> words[] = new ArrayList[_nchks];
+    int cnt=0;
+    for(int i=0;i<_ptasks.length;++i) {
+      maps[i] = _ptasks[i]._embeddings;
+      words[i] = _ptasks[i]._words;
+      cnt += maps[i].size();
+    }
+    double elapsed = (System.currentTimeMillis() - start)/1000.;
+    System.out.println("Processed " + cnt + " embeddings in " + elapsed + " seconds with " + nreaders + " concurrent readers.");
+    _maps=maps;
+    _words=words;
     return this;
   }
 
   /**
-   * The first part of the parallel parse. An instance of this class reads in a small
-   * chunk of data (4MB roughly) using the FileChannel API to set a Random Access starting
-   * offset to read from.
+   * The first part of the parallel parse. Chunks are dealt round-robin across nreaders instances of this class.
+   * Each instance reads its chunks (4MB roughly) in turn with positional reads on the shared FileChannel, and
+   * forks a BuildEmbeddingsTask for each chunk as soon as its bytes arrive so that map building overlaps with
+   * reading the next chunk.
    */
   private static class DiskReadTask extends RecursiveAction {
-    int _cidx;
-    byte[] _chk;
-    int _chkSize;
-    final long _off;
-    final String _path;
-    ByteBuffer _bb=null;
-    DiskReadTask(int cidx, String path, long offset, int chkSize) {
-      _cidx=cidx;
-      _path=path;
-      _off=offset;
-      _chkSize=chkSize;
-      _chk=new byte[_chkSize];
+    final int _lane;
+    final int _nlanes;
+    final FileChannel _fc;
+    final EmbeddingsParser _ep;
+    DiskReadTask(int lane, int nlanes, FileChannel fc, EmbeddingsParser ep) {
+      _lane=lane;
+      _nlanes=nlanes;
+      _fc=fc;
+      _ep=ep;
     }
     @Override protected void compute() {
-      try( FileInputStream s = new FileInputStream(new File(_path))) {
-        FileChannel fc = s.getChannel();
-        fc.position(_off);
-        fc.read(_bb=ByteBuffer.wrap(_chk));
-      } catch( Exception e) {
-        System.err.println("chunk: " + _cidx + "; bytesToRead: " + _chkSize +"; offset: " + _off);
-        throw new RuntimeException(e);
+      ArrayList<BuildEmbeddingsTask> ptasks = new ArrayList<>();
+      for(int cidx=_lane;cidx<_ep._nchks;cidx+=_nlanes) {
+        BuildEmbeddingsTask pt = new BuildEmbeddingsTask(cidx,read(cidx),_ep._str_type,_ep._vec_sz);
+        _ep._ptasks[cidx]=pt;
+        pt.fork();
+        ptasks.add(pt);
       }
+      for(int i=ptasks.size()-1;i>=0;--i) ptasks.get(i).join(); // LIFO, so un-stolen tasks run right here
     }
-  }
-
-  private EmbeddingsParser buildEmbeddingsMap() {
-    long start = System.currentTimeMillis();
-    ArrayList<BuildEmbeddingsTask> ptasks = new ArrayList<>();
-    HashMap<BufferedBytes,BufferedBytes> maps[] = new HashMap[_nchks];
 
-    for(int i=0;i<_ptasks.length;++i) {
-      _ptasks[i] = new BuildEmbeddingsTask(i,_rtasks[i]._chk,_str_type,_vec_sz);
-      ptasks.add(_ptasks[i]);
-      maps[i] = _ptasks[i]._embeddings;
+    // a single read is not guaranteed to fill the buffer; keep reading until the chunk is complete
+    private byte[] read(int cidx) {
+      long off = _ep._offs[cidx];
+      int chkSize = _ep.chkSize(cidx);
+      byte[] chk = new byte[chkSize];
+      ByteBuffer bb = ByteBuffer.wrap(chk);
+      try {
+        long pos=off;
+        while( bb.hasRemaining() ) {
+          int n = _fc.read(bb,pos);
+          if( n < 0 ) throw new EOFException("unexpected end of file at byte " + pos);
+          pos += n;
+        }
+      } catch( Exception e) {
+        System.err.println("chunk: " + cidx + "; bytesToRead: " + chkSize +"; offset: " + off);
+        throw new RuntimeException(e);
+      }
+      return chk;
     }
-    ForkJoinTask.invokeAll(ptasks);
-    double elapsed = (System.currentTimeMillis() - start)/1000.;
-    int cnt=0;
-    for (HashMap<BufferedBytes, BufferedBytes> map : maps)
-      cnt += map.size();
-    System.out.println("Processed " + cnt + " embeddings in " + elapsed + " seconds.");
-    _maps=maps;
-    return this;
   }
 
   /**
@@ -158,12 +201,14 @@ public class EmbeddingsParser {
     int _stype; // 1 when needing to parse an additional byte for string length; otherwise 0
     int _vsz;
     HashMap<BufferedBytes, BufferedBytes> _embeddings;
+    ArrayList<BufferedBytes> _words;
     BuildEmbeddingsTask(int cidx, byte[] in, boolean str_type, int vec_sz) {
       _cidx=cidx;
       _in=in;
       _stype=str_type?1:0;
       _vsz=vec_sz;
       _embeddings=new HashMap<>();
+      _words=new ArrayList<>();
     }
     @Override protected void compute() {
       int pos=0;
@@ -180,6 +225,7 @@ public class EmbeddingsParser {
 
         BufferedBytes bb = new BufferedBytes(_in,pos,ssz);
         _embeddings.put(bb,bb); // why use two objects when you could use one!
+        _words.add(bb);
         pos += ssz + NBYTES*_vsz;
         assert pos-start == (1+_stype) + ssz + _vsz*NBYTES;
       }
@@ -0,0 +1,76 @@
+package embeddings;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static embeddings.EmbeddingsParser.NBYTES;
+
+/**
+ * Writes word embeddings in the .bin layout read by EmbeddingsParser.
+ *
+ * Each record handed to the writer is a BufferedBytes whose _off/_len span the word and which is immediately
+ * followed in _buf by the _vec_sz already-quantized 3-byte values. This is exactly the shape of the records
+ * produced by BuildEmbeddingsTask, so records from a parsed file are copied byte for byte without decoding.
+ *
+ * Records are split into nchks chunks of (roughly) equal word counts. The header stores the chunk offsets
+ * relative to the end of the header, matching EmbeddingsParser.parseHeader.
+ */
+class EmbeddingsWriter {
+
+  static void write(String path, boolean str_type, short vec_sz, byte scale, int shift, int nchks, BufferedBytes[] recs) {
+    // 1 byte string lengths can't describe long words; promote rather than write a corrupt file
+    for( BufferedBytes r: recs ) {
+      if( r._len > 0xFFFF ) throw new IllegalArgumentException("word is too long to encode: " + r._len + " bytes");
+      str_type |= r._len > 0xFF;
+    }
+    nchks = Math.max(1,Math.min(nchks,recs.length));
+    if( nchks > Short.MAX_VALUE ) throw new IllegalArgumentException("too many chunks: " + nchks);
+    int stype = str_type?1:0;
+    int vbytes = NBYTES*vec_sz;
+
+    // chunk i holds records [starts[i],starts[i+1])
+    int[] starts = new int[nchks+1];
+    for(int i=0;i<=nchks;++i) starts[i] = (int)((long)recs.length*i/nchks);
+    long[] offs = new long[nchks];
+    long off=0;
+    for(int i=0;i<nchks;++i) {
+      offs[i]=off;
+      long chkSize=0;
+      for(int r=starts[i];r<starts[i+1];++r) chkSize += (1+stype) + recs[r]._len + vbytes;
+      if( chkSize > Integer.MAX_VALUE ) throw new IllegalArgumentException("chunk " + i + " is too large (" + chkSize + " bytes); use more chunks");
+      off += chkSize;
+    }
+
+    try( OutputStream os = new BufferedOutputStream(new FileOutputStream(path),1<<20) ) {
+      writeHeader(os,str_type,vec_sz,scale,shift,offs);
+      for( BufferedBytes r: recs ) {
+        os.write(r._len & 0xFF);
+        if( str_type ) os.write(r._len >>> 8 & 0xFF);
+        os.write(r._buf,r._off,r._len + vbytes);
+      }
+    } catch( IOException e ) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Write the .bin header.
+   * @param offs start of each chunk relative to the end of the header; offs[0] is always 0
+   */
+  static void writeHeader(OutputStream os, boolean str_type, short vec_sz, byte scale, int shift, long[] offs) throws IOException {
+    os.write(str_type?1:0);
+    write2(os,vec_sz);
+    os.write(scale);
+    write3(os,shift);
+    write2(os,offs.length);
+    for(int i=1;i<offs.length;++i) write8(os,offs[i]);
+  }
+
+  private static void write2(OutputStream os, int v) throws IOException { os.write(v & 0xFF); os.write(v >>> 8 & 0xFF); }
+  private static void write3(OutputStream os, int v) throws IOException { write2(os,v); os.write(v >>> 16 & 0xFF); }
+  private static void write8(OutputStream os, long v) throws IOException {
+    for(int i=0;i<8;++i) os.write((int)(v >>> (i<<3)) & 0xFF);
+  }
+}
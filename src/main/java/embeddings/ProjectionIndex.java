@@ -0,0 +1,71 @@
+package embeddings;
+
+import java.util.Random;
+
+/**
+ * Random projection of every vector down to a small dimension (32-64 works well for 300d embeddings).
+ *
+ * Each word is projected with a fixed Gaussian matrix, normalized to unit length, and stored as a row of shorts
+ * (the unit vector scaled by Short.MAX_VALUE). Random projections approximately preserve angles, so the dot
+ * product of a projected query with a row approximates the cosine similarity of the full vectors. With 64
+ * dimensions the reduced matrix is 128 bytes per word instead of the 900 bytes of the quantized record.
+ */
+class ProjectionIndex extends ShortlistIndex<float[]> {
+  final int _dim;
+  final int _vsz;
+  final float[] _proj; // _dim x _vsz projection matrix, row major
+  final short[] _rows; // _nkeys x _dim reduced unit vectors, row major
+
+  ProjectionIndex(WordEmbeddings em, int dim, long seed) {
+    super(em);
+    if( dim <= 0 ) throw new IllegalArgumentException("dim must be >= 1; got: " + dim);
+    if( (long)_nkeys*dim > Integer.MAX_VALUE ) throw new IllegalArgumentException("dim " + dim + " is too large for " + _nkeys + " words");
+    _dim=dim;
+    _vsz=em._vec_sz;
+    _proj=new float[dim*_vsz];
+    Random r = new Random(seed);
+    for(int i=0;i<_proj.length;++i) _proj[i] = (float)r.nextGaussian();
+    _rows=new short[_nkeys*dim];
+    build();
+  }
+
+  // project v into res and scale res to unit length
+  private void project(float[] v, float[] res) {
+    double norm=0;
+    for(int j=0;j<_dim;++j) {
+      float sum=0;
+      int off=j*_vsz;
+      for(int i=0;i<_vsz;++i) sum += _proj[off+i]*(Float.isNaN(v[i])?0:v[i]);
+      res[j]=sum;
+      norm += sum*sum;
+    }
+    float inv = norm==0 ? 0 : (float)(1/Math.sqrt(norm));
+    for(int j=0;j<_dim;++j) res[j] *= inv;
+  }
+
+  @Override float[] query(float[] vec) {
+    float[] q = new float[_dim];
+    project(vec,q);
+    return q;
+  }
+
+  @Override void build(int lo, int hi) {
+    float[] v = new float[_vsz];
+    float[] p = new float[_dim];
+    for(int id=lo;id<hi;++id) {
+      _em.decode(id,v);
+      project(v,p);
+      int off=id*_dim;
+      for(int j=0;j<_dim;++j) _rows[off+j] = (short)Math.round(p[j]*Short.MAX_VALUE);
+    }
+  }
+
+  @Override void scan(float[] q, int lo, int hi, TopK top) {
+    for(int id=lo;id<hi;++id) {
+      int off=id*_dim;
+      float dot=0;
+      for(int j=0;j<_dim;++j) dot += q[j]*_rows[off+j];
+      top.add(id,dot);
+    }
+  }
+}
@@ -0,0 +1,110 @@
+package embeddings;
+
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A compact, approximate index over the base vocabulary used as the first stage of a two-stage search.
+ *
+ * The index scores every word against a query with a cheap stand-in for cosine similarity and returns a shortlist
+ * of candidate ids (indices into WordEmbeddings._keys). WordEmbeddings then re-ranks the shortlist exactly on the
+ * full records. Building and scanning are both split across F/J threads the same way as CompareTask.
+ *
+ * @param <Q> the query representation produced by query and consumed by scan
+ */
+abstract class ShortlistIndex<Q> {
+  final WordEmbeddings _em;
+  final int _nkeys;
+  final int _chkSize; // number of ids in a "leaf" node
+
+  ShortlistIndex(WordEmbeddings em) {
+    _em=em;
+    _nkeys=em._keys.length;
+    _chkSize=Math.max(2,_nkeys/em._nchks);
+  }
+
+  /** Convert a full, decoded query vector into the index's representation. */
+  abstract Q query(float[] vec);
+
+  /** Score ids [lo,hi) against q, higher is more similar, and offer them to top. */
+  abstract void scan(Q q, int lo, int hi, TopK top);
+
+  /** Fill the index rows for ids [lo,hi). Called concurrently on disjoint ranges. */
+  abstract void build(int lo, int hi);
+
+  final void build() { new BuildTask(this,0,_nkeys).invoke(); }
+
+  /**
+   * @param vec full query vector
+   * @param m number of candidates to return
+   * @return ids of the (at most) m best candidates, in no particular order
+   */
+  final int[] shortlist(float[] vec, int m) {
+    ScanTask<Q> st = new ScanTask<>(this,query(vec),Math.min(m,_nkeys));
+    st.invoke();
+    return st._top.ids();
+  }
+
+  private static class BuildTask extends RecursiveAction {
+    final ShortlistIndex<?> _idx;
+    final int _lo, _hi;
+    BuildTask(ShortlistIndex<?> idx, int lo, int hi) { _idx=idx; _lo=lo; _hi=hi; }
+    @Override protected void compute() {
+      if( _hi - _lo >= _idx._chkSize ) {
+        int mid = (_lo+_hi)>>>1;
+        invokeAll(new BuildTask(_idx,_lo,mid),new BuildTask(_idx,mid,_hi));
+      } else if( _hi > _lo ) _idx.build(_lo,_hi);
+    }
+  }
+
+  private static class ScanTask<Q> extends CountedCompleter {
+    ScanTask<Q> _left, _rite;
+    int _lo, _hi;
+    final ShortlistIndex<Q> _idx;
+    final Q _q;
+    final int _m;
+    final TopK _top;
+
+    ScanTask(ShortlistIndex<Q> idx, Q q, int m) {
+      _idx=idx;
+      _q=q;
+      _m=m;
+      _lo=0;
+      _hi=idx._nkeys;
+      _top=new TopK(m);
+    }
+
+    ScanTask(ScanTask<Q> st) {
+      super(st);
+      _idx=st._idx;
+      _q=st._q;
+      _m=st._m;
+      _lo=st._lo;
+      _hi=st._hi;
+      _top=new TopK(_m);
+      setPendingCount(0);
+    }
+
+    @Override public void compute() {
+      if( _hi - _lo >= _idx._chkSize ) {
+        final int mid = (_lo+_hi)>>>1;
+        _left = new ScanTask<>(this);
+        _rite = new ScanTask<>(this);
+        _left._hi = mid;
+        _rite._lo = mid;
+        addToPendingCount(1);
+        if( !isCompletedAbnormally() ) _left.fork();
+        if( !isCompletedAbnormally() ) _rite.compute();
+        return;
+      }
+      if( _hi > _lo ) _idx.scan(_q,_lo,_hi,_top);
+      tryComplete();
+    }
+
+    @Override public void onCompletion(CountedCompleter cc) {
+      if( _left!=null ) _top.addAll(_left._top);
+      if( _rite!=null ) _top.addAll(_rite._top);
+      _left=_rite=null;
+    }
+  }
+}
@@ -0,0 +1,113 @@
+package embeddings;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Random hyperplane (SimHash) signatures of every vector.
+ *
+ * Bit b of a word's signature is the sign of the dot product of the word's vector with random hyperplane b. The
+ * fraction of differing bits between two signatures estimates the angle between the two vectors, so ranking by
+ * Hamming distance (Long.bitCount of the xor) approximates ranking by cosine similarity. 256 bits are 32 bytes
+ * per word instead of the 900 bytes of the quantized record, and a scan is a handful of xor/popcount
+ * instructions per word.
+ *
+ * Signatures are persisted alongside the .bin file so that they only need to be computed once. The file holds
+ * the vocabulary size, a fingerprint of the vocabulary, the signature length and seed, then the signatures in
+ * word id order.
+ */
+class SignatureIndex extends ShortlistIndex<long[]> {
+  final int _bits;
+  final int _nlongs; // longs per signature
+  final long _seed;
+  final int _vsz;
+  final float[] _planes; // _bits x _vsz hyperplane normals, row major
+  final long[] _sigs; // _nkeys x _nlongs signatures, row major
+
+  SignatureIndex(WordEmbeddings em, int bits, long seed) {
+    this(em,bits,seed,true);
+  }
+
+  private SignatureIndex(WordEmbeddings em, int bits, long seed, boolean build) {
+    super(em);
+    if( bits <= 0 ) throw new IllegalArgumentException("bits must be >= 1; got: " + bits);
+    _nlongs=(bits+63)>>>6;
+    _bits=_nlongs<<6;
+    if( (long)_nkeys*_nlongs > Integer.MAX_VALUE ) throw new IllegalArgumentException(bits + " bit signatures are too large for " + _nkeys + " words");
+    _seed=seed;
+    _vsz=em._vec_sz;
+    _planes=new float[_bits*_vsz];
+    Random r = new Random(seed);
+    for(int i=0;i<_planes.length;++i) _planes[i] = (float)r.nextGaussian();
+    _sigs=new long[_nkeys*_nlongs];
+    if( build ) build();
+  }
+
+  private void sign(float[] v, long[] sig, int off) {
+    for(int b=0;b<_bits;++b) {
+      float dot=0;
+      int poff=b*_vsz;
+      for(int i=0;i<_vsz;++i) dot += _planes[poff+i]*(Float.isNaN(v[i])?0:v[i]);
+      if( dot >= 0 ) sig[off+(b>>>6)] |= 1L << (b&63);
+    }
+  }
+
+  @Override long[] query(float[] vec) {
+    long[] q = new long[_nlongs];
+    sign(vec,q,0);
+    return q;
+  }
+
+  @Override void build(int lo, int hi) {
+    float[] v = new float[_vsz];
+    for(int id=lo;id<hi;++id) {
+      _em.decode(id,v);
+      sign(v,_sigs,id*_nlongs);
+    }
+  }
+
+  @Override void scan(long[] q, int lo, int hi, TopK top) {
+    for(int id=lo;id<hi;++id) {
+      int off=id*_nlongs;
+      int dist=0;
+      for(int j=0;j<_nlongs;++j) dist += Long.bitCount(q[j]^_sigs[off+j]);
+      top.add(id,-dist); // fewer differing bits => more similar
+    }
+  }
+
+  void save(String path) {
+    try( DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path),1<<20)) ) {
+      os.writeInt(_nkeys);
+      os.writeInt(_em.fingerprint());
+      os.writeInt(_bits);
+      os.writeShort(_vsz);
+      os.writeLong(_seed);
+      for( long l: _sigs ) os.writeLong(l);
+    } catch( IOException e ) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  static SignatureIndex load(WordEmbeddings em, String path) {
+    try( DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(path),1<<20)) ) {
+      int nkeys = is.readInt();
+      int fp = is.readInt();
+      if( nkeys!=em._keys.length || fp!=em.fingerprint() )
+        throw new IllegalArgumentException(path + " holds signatures for a different vocabulary");
+      int bits = is.readInt();
+      short vsz = is.readShort();
+      if( vsz!=em._vec_sz ) throw new IllegalArgumentException(path + " holds signatures of " + vsz + " element vectors; expected " + em._vec_sz);
+      SignatureIndex si = new SignatureIndex(em,bits,is.readLong(),false);
+      for(int i=0;i<si._sigs.length;++i) si._sigs[i] = is.readLong();
+      return si;
+    } catch( IOException e ) {
+      throw new RuntimeException(e);
+    }
+  }
+}
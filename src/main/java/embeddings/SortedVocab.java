@@ -0,0 +1,158 @@
+package embeddings;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Word ids sorted by the unsigned byte order of their words, for prefix and range lookups.
+ *
+ * Comparisons run directly over the key bytes; no word is ever converted to a String. The sort is a F/J merge
+ * sort over an int[] of ids. Lookups binary search the sorted ids, so a prefix query costs two O(log n) searches
+ * plus the size of the result.
+ *
+ * Like the SignatureIndex, the sorted ids can be persisted next to the .bin file; the file holds the vocabulary
+ * size and fingerprint followed by the ids.
+ */
+class SortedVocab {
+  private static final int SEQ_SORT = 1<<13; // sort ranges smaller than this on a single thread
+
+  final BufferedBytes[] _keys;
+  final int[] _ids; // ids in unsigned byte order of their words
+
+  SortedVocab(BufferedBytes[] keys) {
+    _keys=keys;
+    _ids=new int[keys.length];
+    for(int i=0;i<_ids.length;++i) _ids[i]=i;
+    new SortTask(this,_ids,new int[_ids.length],0,_ids.length).invoke();
+  }
+
+  private SortedVocab(BufferedBytes[] keys, int[] ids) { _keys=keys; _ids=ids; }
+
+  // unsigned lexicographic comparison of a's bytes with b[0,blen)
+  static int compare(BufferedBytes a, byte[] b, int boff, int blen) {
+    int n = Math.min(a._len,blen);
+    for(int i=0;i<n;++i) {
+      int c = (a._buf[a._off+i] & 0xFF) - (b[boff+i] & 0xFF);
+      if( c!=0 ) return c;
+    }
+    return a._len - blen;
+  }
+
+  static int compare(BufferedBytes a, BufferedBytes b) { return compare(a,b._buf,b._off,b._len); }
+
+  /** @return the first position in _ids whose word is >= key */
+  int lowerBound(byte[] key) {
+    int lo=0, hi=_ids.length;
+    while( lo < hi ) {
+      int mid = (lo+hi)>>>1;
+      if( compare(_keys[_ids[mid]],key,0,key.length) < 0 ) lo=mid+1;
+      else hi=mid;
+    }
+    return lo;
+  }
+
+  /** @return ids of all words starting with prefix, in sorted order */
+  int[] prefix(byte[] prefix) {
+    int lo = lowerBound(prefix);
+    // words with the prefix end right before the smallest key greater than every such word
+    byte[] next = Arrays.copyOf(prefix,prefix.length);
+    int i=next.length-1;
+    while( i>=0 && next[i]==(byte)0xFF ) i--;
+    int hi;
+    if( i<0 ) hi=_ids.length; // prefix is empty or all 0xFF: it runs to the end
+    else {
+      next[i]++;
+      hi = lowerBound(Arrays.copyOf(next,i+1));
+    }
+    return Arrays.copyOfRange(_ids,lo,Math.max(lo,hi));
+  }
+
+  /** @return ids of all words w with from <= w < to, in sorted order; a null bound is unbounded */
+  int[] range(byte[] from, byte[] to) {
+    int lo = from==null ? 0 : lowerBound(from);
+    int hi = to==null ? _ids.length : lowerBound(to);
+    return Arrays.copyOfRange(_ids,lo,Math.max(lo,hi));
+  }
+
+  void save(String path, int fingerprint) {
+    try( DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path),1<<20)) ) {
+      os.writeInt(_ids.length);
+      os.writeInt(fingerprint);
+      for( int id: _ids ) os.writeInt(id);
+    } catch( IOException e ) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  static SortedVocab load(BufferedBytes[] keys, int fingerprint, String path) {
+    try( DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(path),1<<20)) ) {
+      int n = is.readInt();
+      if( n!=keys.length || is.readInt()!=fingerprint )
+        throw new IllegalArgumentException(path + " holds a sorted index for a different vocabulary");
+      int[] ids = new int[n];
+      for(int i=0;i<n;++i) ids[i] = is.readInt();
+      return new SortedVocab(keys,ids);
+    } catch( IOException e ) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Merge sort of ids[lo,hi) using tmp[lo,hi) as scratch. Halves are sorted in parallel down to SEQ_SORT ids and
+   * then merged on the way back up.
+   */
+  private static class SortTask extends RecursiveAction {
+    final SortedVocab _sv;
+    final int[] _ids, _tmp;
+    final int _lo, _hi;
+    SortTask(SortedVocab sv, int[] ids, int[] tmp, int lo, int hi) { _sv=sv; _ids=ids; _tmp=tmp; _lo=lo; _hi=hi; }
+
+    @Override protected void compute() {
+      if( _hi - _lo < SEQ_SORT ) {
+        sort(_lo,_hi);
+        return;
+      }
+      int mid = (_lo+_hi)>>>1;
+      invokeAll(new SortTask(_sv,_ids,_tmp,_lo,mid),new SortTask(_sv,_ids,_tmp,mid,_hi));
+      merge(_lo,mid,_hi);
+    }
+
+    private void sort(int lo, int hi) {
+      if( hi - lo < 16 ) {
+        // insertion sort
+        for(int i=lo+1;i<hi;++i) {
+          int id=_ids[i];
+          BufferedBytes w = _sv._keys[id];
+          int j=i-1;
+          while( j>=lo && compare(_sv._keys[_ids[j]],w) > 0 ) {
+            _ids[j+1]=_ids[j];
+            j--;
+          }
+          _ids[j+1]=id;
+        }
+        return;
+      }
+      int mid = (lo+hi)>>>1;
+      sort(lo,mid);
+      sort(mid,hi);
+      merge(lo,mid,hi);
+    }
+
+    private void merge(int lo, int mid, int hi) {
+      if( compare(_sv._keys[_ids[mid-1]],_sv._keys[_ids[mid]]) <= 0 ) return; // already in order
+      System.arraycopy(_ids,lo,_tmp,lo,hi-lo);
+      int i=lo, j=mid, k=lo;
+      while( i<mid && j<hi )
+        _ids[k++] = compare(_sv._keys[_tmp[j]],_sv._keys[_tmp[i]]) < 0 ? _tmp[j++] : _tmp[i++];
+      while( i<mid ) _ids[k++]=_tmp[i++];
+      while( j<hi  ) _ids[k++]=_tmp[j++];
+    }
+  }
+}
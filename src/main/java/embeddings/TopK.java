@@ -0,0 +1,61 @@
+package embeddings;
+
+/**
+ * Bounded min-heap of (id, score) pairs that keeps the k highest scores.
+ *
+ * Primitive arrays instead of a PriorityQueue of boxed pairs: candidate scans offer every word of the
+ * vocabulary, so this must not allocate per offer.
+ */
+final class TopK {
+  final int _k;
+  final int[] _ids;
+  final float[] _scores;
+  int _size;
+
+  TopK(int k) {
+    _k=k;
+    _ids=new int[k];
+    _scores=new float[k];
+  }
+
+  void add(int id, float score) {
+    if( _size < _k ) {
+      // sift up
+      int i=_size++;
+      while( i > 0 ) {
+        int p = (i-1)>>>1;
+        if( _scores[p] <= score ) break;
+        _ids[i]=_ids[p];
+        _scores[i]=_scores[p];
+        i=p;
+      }
+      _ids[i]=id;
+      _scores[i]=score;
+    } else if( score > _scores[0] ) {
+      // replace the root (the lowest kept score), then sift down
+      int i=0;
+      while( true ) {
+        int c = 2*i+1;
+        if( c >= _size ) break;
+        if( c+1 < _size && _scores[c+1] < _scores[c] ) c++;
+        if( _scores[c] >= score ) break;
+        _ids[i]=_ids[c];
+        _scores[i]=_scores[c];
+        i=c;
+      }
+      _ids[i]=id;
+      _scores[i]=score;
+    }
+  }
+
+  void addAll(TopK that) {
+    for(int i=0;i<that._size;++i) add(that._ids[i],that._scores[i]);
+  }
+
+  /** @return the kept ids, in no particular order */
+  int[] ids() {
+    int[] ids = new int[_size];
+    System.arraycopy(_ids,0,ids,0,_size);
+    return ids;
+  }
+}
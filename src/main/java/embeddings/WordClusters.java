@@ -0,0 +1,352 @@
+package embeddings;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * K-means clustering of the base vocabulary.
+ *
+ * Every pass streams over the quantized records: F/J leaf tasks decode each record into a scratch vector, find
+ * its nearest centroid, and add it into the leaf's own centroid accumulator. The accumulators are summed once
+ * all leaves are done, so the hot loop shares nothing between threads and no float matrix of the vocabulary is
+ * ever built. There are a few leaves per F/J worker, which bounds the accumulator memory to a handful of
+ * k x _vec_sz arrays.
+ *
+ * Lloyd iterations run until no word changes cluster or the iteration limit is hit. The mini-batch variant
+ * updates centroids from small random batches with per-centroid learning rates (Sculley, 2010) and finishes
+ * with one full assignment pass. Either way a word's cluster is its nearest centroid, so words added through
+ * the overlay can be placed with clusterOf too.
+ */
+public class WordClusters {
+  private final WordEmbeddings _em;
+  final int _k;
+  final int _vsz;
+  final float[] _centroids; // _k x _vsz, row major
+  final int[] _assign; // cluster of each word id
+  private int[] _offs; // members of cluster c are _members[_offs[c],_offs[c+1])
+  private int[] _members;
+
+  private WordClusters(WordEmbeddings em, int k) {
+    if( k <= 0 ) throw new IllegalArgumentException("k must be >= 1; got: " + k);
+    if( k > em._keys.length ) throw new IllegalArgumentException("k must be <= the vocabulary size " + em._keys.length + "; got: " + k);
+    _em=em;
+    _k=k;
+    _vsz=em._vec_sz;
+    _centroids=new float[k*_vsz];
+    _assign=new int[em._keys.length];
+  }
+
+  /**
+   * Lloyd's k-means.
+   * @param plusplus seed the centroids with k-means++ (on a sample of 64*k words) instead of k random words
+   */
+  static WordClusters kmeans(WordEmbeddings em, int k, int iters, boolean plusplus, long seed) {
+    WordClusters wc = new WordClusters(em,k);
+    Random r = new Random(seed);
+    if( plusplus ) wc.initPlusPlus(r);
+    else wc.initRandom(r);
+    Arrays.fill(wc._assign,-1);
+    for(int it=0;it<iters;++it) {
+      Pass p = wc.assign(true);
+      wc.update(p);
+      if( p._changed==0 ) break;
+    }
+    wc.assign(false); // final centroids => final clusters
+    wc.index();
+    return wc;
+  }
+
+  /**
+   * Mini-batch k-means, seeded with k random words.
+   * @param batch number of random words per iteration
+   */
+  static WordClusters miniBatch(WordEmbeddings em, int k, int iters, int batch, long seed) {
+    if( batch <= 0 ) throw new IllegalArgumentException("batch must be >= 1; got: " + batch);
+    WordClusters wc = new WordClusters(em,k);
+    Random r = new Random(seed);
+    wc.initRandom(r);
+    long[] seen = new long[k];
+    int[] ids = new int[batch];
+    int[] near = new int[batch];
+    float[] v = new float[wc._vsz];
+    for(int it=0;it<iters;++it) {
+      for(int i=0;i<batch;++i) ids[i] = r.nextInt(em._keys.length);
+      wc.nearest(ids,near);
+      for(int i=0;i<batch;++i) {
+        int c = near[i];
+        float eta = 1f/++seen[c];
+        em.decode(ids[i],v);
+        int off=c*wc._vsz;
+        for(int j=0;j<wc._vsz;++j) wc._centroids[off+j] += eta*(v[j] - wc._centroids[off+j]);
+      }
+    }
+    wc.assign(false);
+    wc.index();
+    return wc;
+  }
+
+  /** @return cluster of word, i.e. its nearest centroid; -1 if word is not in the vocabulary */
+  public int clusterOf(String word) {
+    BufferedBytes w = new BufferedBytes(word.getBytes(UTF_8));
+    if( !_em.has(w) ) return -1;
+    float[] v = new float[_vsz];
+    _em.get(word,v);
+    return nearest(v,centroidNorms());
+  }
+
+  /** @return cluster of the word with this id, as computed by the final pass */
+  public int clusterOf(int id) { return _assign[id]; }
+
+  /** @return ids of the words in cluster c, usable with WordEmbeddings.get(int,float[]) and word(int) */
+  public int[] membersOf(int c) { return Arrays.copyOfRange(_members,_offs[c],_offs[c+1]); }
+
+  /** @return number of clusters */
+  public int k() { return _k; }
+
+  /** @return a copy of the centroid of cluster c */
+  public float[] centroid(int c) { return Arrays.copyOfRange(_centroids,c*_vsz,(c+1)*_vsz); }
+
+  private void initRandom(Random r) {
+    // k distinct words, by a partial Fisher-Yates shuffle
+    int n = _assign.length;
+    int[] perm = new int[n];
+    for(int i=0;i<n;++i) perm[i]=i;
+    float[] v = new float[_vsz];
+    for(int c=0;c<_k;++c) {
+      int j = c + r.nextInt(n-c);
+      int t=perm[c]; perm[c]=perm[j]; perm[j]=t;
+      _em.decode(perm[c],v);
+      System.arraycopy(v,0,_centroids,c*_vsz,_vsz);
+    }
+  }
+
+  private void initPlusPlus(Random r) {
+    int n = _assign.length;
+    int m = (int)Math.min(n,64L*_k);
+    // sample m distinct words, decoded once
+    int[] perm = new int[n];
+    for(int i=0;i<n;++i) perm[i]=i;
+    float[] pts = new float[m*_vsz];
+    float[] v = new float[_vsz];
+    for(int i=0;i<m;++i) {
+      int j = i + r.nextInt(n-i);
+      int t=perm[i]; perm[i]=perm[j]; perm[j]=t;
+      _em.decode(perm[i],v);
+      System.arraycopy(v,0,pts,i*_vsz,_vsz);
+    }
+    float[] d2 = new float[m];
+    Arrays.fill(d2,Float.MAX_VALUE);
+    int pick = r.nextInt(m);
+    for(int c=0;c<_k;++c) {
+      System.arraycopy(pts,pick*_vsz,_centroids,c*_vsz,_vsz);
+      if( c==_k-1 ) break;
+      new DistTask(pts,d2,_centroids,c*_vsz,_vsz,0,m).invoke();
+      double sum=0;
+      for( float d: d2 ) sum += d;
+      // sample the next centroid with probability proportional to its squared distance
+      double x = r.nextDouble()*sum;
+      pick=m-1;
+      for(int i=0;i<m;++i) {
+        x -= d2[i];
+        if( x < 0 ) { pick=i; break; }
+      }
+    }
+  }
+
+  // d2[i] = min(d2[i], |pts_i - centroid|^2) over [lo,hi)
+  private static class DistTask extends RecursiveAction {
+    final float[] _pts, _d2, _cents;
+    final int _coff, _vsz, _lo, _hi;
+    DistTask(float[] pts, float[] d2, float[] cents, int coff, int vsz, int lo, int hi) {
+      _pts=pts; _d2=d2; _cents=cents; _coff=coff; _vsz=vsz; _lo=lo; _hi=hi;
+    }
+    @Override protected void compute() {
+      if( _hi - _lo > 1024 ) {
+        int mid = (_lo+_hi)>>>1;
+        invokeAll(new DistTask(_pts,_d2,_cents,_coff,_vsz,_lo,mid),new DistTask(_pts,_d2,_cents,_coff,_vsz,mid,_hi));
+        return;
+      }
+      for(int i=_lo;i<_hi;++i) {
+        float d=0;
+        int off=i*_vsz;
+        for(int j=0;j<_vsz;++j) {
+          float x = _pts[off+j] - _cents[_coff+j];
+          d += x*x;
+        }
+        if( d < _d2[i] ) _d2[i]=d;
+      }
+    }
+  }
+
+  private float[] centroidNorms() {
+    float[] norms = new float[_k];
+    for(int c=0;c<_k;++c) {
+      float s=0;
+      for(int j=c*_vsz;j<(c+1)*_vsz;++j) s += _centroids[j]*_centroids[j];
+      norms[c]=s;
+    }
+    return norms;
+  }
+
+  // argmin_c |v - c|^2 == argmin_c |c|^2 - 2 v.c
+  private int nearest(float[] v, float[] norms) {
+    int best=0;
+    float bestD=Float.MAX_VALUE;
+    for(int c=0;c<_k;++c) {
+      int off=c*_vsz;
+      float dot=0;
+      for(int j=0;j<_vsz;++j) dot += v[j]*_centroids[off+j];
+      float d = norms[c] - 2*dot;
+      if( d < bestD ) { bestD=d; best=c; }
+    }
+    return best;
+  }
+
+  // near[i] = nearest centroid of word ids[i], in parallel
+  private void nearest(final int[] ids, final int[] near) {
+    final float[] norms = centroidNorms();
+    ArrayList<RecursiveAction> tasks = new ArrayList<>();
+    int nleaves = Math.min(ids.length,4*ForkJoinPool.getCommonPoolParallelism());
+    for(int l=0;l<nleaves;++l) {
+      final int lo = (int)((long)ids.length*l/nleaves), hi = (int)((long)ids.length*(l+1)/nleaves);
+      tasks.add(new RecursiveAction() {
+        @Override protected void compute() {
+          float[] v = new float[_vsz];
+          for(int i=lo;i<hi;++i) {
+            _em.decode(ids[i],v);
+            near[i] = nearest(v,norms);
+          }
+        }
+      });
+    }
+    ForkJoinTask.invokeAll(tasks);
+  }
+
+  /** Sums of the words assigned to each centroid by one pass, reduced over all leaves. */
+  private static class Pass {
+    double[] _sums;
+    long[] _counts;
+    long _changed;
+  }
+
+  // assign every word to its nearest centroid; accumulate the new centroid sums when accumulate is set
+  private Pass assign(boolean accumulate) {
+    float[] norms = centroidNorms();
+    int n = _assign.length;
+    int nleaves = Math.max(1,Math.min(n,4*ForkJoinPool.getCommonPoolParallelism()));
+    ArrayList<AssignTask> tasks = new ArrayList<>();
+    for(int l=0;l<nleaves;++l)
+      tasks.add(new AssignTask(this,norms,(int)((long)n*l/nleaves),(int)((long)n*(l+1)/nleaves),accumulate));
+    ForkJoinTask.invokeAll(tasks);
+    Pass p = new Pass();
+    if( accumulate ) {
+      p._sums = new double[_k*_vsz];
+      p._counts = new long[_k];
+    }
+    for( AssignTask t: tasks ) {
+      p._changed += t._changed;
+      if( !accumulate ) continue;
+      for(int i=0;i<p._sums.length;++i) p._sums[i] += t._sums[i];
+      for(int c=0;c<_k;++c) p._counts[c] += t._counts[c];
+    }
+    return p;
+  }
+
+  private static class AssignTask extends RecursiveAction {
+    final WordClusters _wc;
+    final float[] _norms;
+    final int _lo, _hi;
+    final boolean _acc;
+    double[] _sums; // this leaf's centroid accumulator
+    long[] _counts;
+    long _changed;
+    AssignTask(WordClusters wc, float[] norms, int lo, int hi, boolean acc) {
+      _wc=wc; _norms=norms; _lo=lo; _hi=hi; _acc=acc;
+    }
+    @Override protected void compute() {
+      int vsz = _wc._vsz;
+      if( _acc ) {
+        _sums = new double[_wc._k*vsz];
+        _counts = new long[_wc._k];
+      }
+      float[] v = new float[vsz];
+      for(int id=_lo;id<_hi;++id) {
+        _wc._em.decode(id,v);
+        int c = _wc.nearest(v,_norms);
+        if( _wc._assign[id]!=c ) {
+          _wc._assign[id]=c;
+          _changed++;
+        }
+        if( !_acc ) continue;
+        _counts[c]++;
+        int off=c*vsz;
+        for(int j=0;j<vsz;++j) _sums[off+j] += v[j];
+      }
+    }
+  }
+
+  // move each centroid to the mean of its words; an empty cluster keeps its centroid
+  private void update(Pass p) {
+    for(int c=0;c<_k;++c) {
+      if( p._counts[c]==0 ) continue;
+      int off=c*_vsz;
+      for(int j=0;j<_vsz;++j) _centroids[off+j] = (float)(p._sums[off+j]/p._counts[c]);
+    }
+  }
+
+  // counting sort of the ids by cluster
+  private void index() {
+    _offs = new int[_k+1];
+    for( int c: _assign ) _offs[c+1]++;
+    for(int c=0;c<_k;++c) _offs[c+1] += _offs[c];
+    _members = new int[_assign.length];
+    int[] pos = Arrays.copyOf(_offs,_k);
+    for(int id=0;id<_assign.length;++id) _members[pos[_assign[id]]++] = id;
+  }
+
+  /**
+   * Persist the centroids and assignments.
+   * @param path write the clusters here
+   */
+  public void save(String path) {
+    try( DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path),1<<20)) ) {
+      os.writeInt(_assign.length);
+      os.writeInt(_em.fingerprint());
+      os.writeInt(_k);
+      os.writeShort(_vsz);
+      for( float f: _centroids ) os.writeFloat(f);
+      for( int c: _assign ) os.writeInt(c);
+    } catch( IOException e ) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  static WordClusters load(WordEmbeddings em, String path) {
+    try( DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(path),1<<20)) ) {
+      int n = is.readInt();
+      if( n!=em._keys.length || is.readInt()!=em.fingerprint() )
+        throw new IllegalArgumentException(path + " holds clusters for a different vocabulary");
+      WordClusters wc = new WordClusters(em,is.readInt());
+      if( is.readShort()!=em._vec_sz ) throw new IllegalArgumentException(path + " holds clusters of different length vectors");
+      for(int i=0;i<wc._centroids.length;++i) wc._centroids[i] = is.readFloat();
+      for(int i=0;i<n;++i) wc._assign[i] = is.readInt();
+      wc.index();
+      return wc;
+    } catch( IOException e ) {
+      throw new RuntimeException(e);
+    }
+  }
+}
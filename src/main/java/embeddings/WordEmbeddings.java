@@ -14,10 +14,16 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 public class WordEmbeddings {
   private float _scale;
   private int _shift;
-  private short _vec_sz;
-  private int _nchks;
+  short _vec_sz;
+  int _nchks;
+  private byte _exp; // power-of-10 exponent of _scale; needed to quantize overlay vectors
+  private boolean _str_type;
 
-  BufferedBytes[] _keys; // cached keys arrays
+  BufferedBytes[] _keys; // cached keys arrays; base word ids index into this, in file order
+  private final EmbeddingsOverlay _overlay = new EmbeddingsOverlay();
+  private volatile ShortlistIndex<?> _shortlist; // first stage of the two-stage mostSimilar
+  private volatile SortedVocab _sorted; // prefix and range lookups
+  private volatile EmbeddingsCache _cache; // decoded vectors and mostSimilar results; null when disabled
 
   public enum EMBEDDINGS {
     GLOVE(EmbeddingsParser.parse("./data/glove.bin")),
@@ -25,11 +31,7 @@ public class WordEmbeddings {
 
     private final WordEmbeddings _em;
     private EMBEDDINGS(EmbeddingsParser ep) {
-      _em=new WordEmbeddings(ep._maps);
-      _em._scale = 1.f/(float)Math.pow(10,ep._scale);
-      _em._shift = ep._shift;
-      _em._vec_sz = ep._vec_sz;
-      _em._nchks = ep._nchks;
+      _em=new WordEmbeddings(ep);
     }
 
     /**
@@ -75,7 +77,7 @@ public class WordEmbeddings {
     }
 
     public boolean has(BufferedBytes bb) {
-      return _em._map.get(bb)!=null;
+      return _em.has(bb);
     }
 
     /**
@@ -85,34 +87,496 @@ public class WordEmbeddings {
      * @return return n most similar words
      */
     public SimilarWord[] mostSimilar(String word, int n) {
-      if( n<=0 ) throw new IllegalArgumentException("n must be >= 1; got: " + n);
-      if( _em._map.get(new BufferedBytes(word.getBytes(UTF_8)))==null ) throw new IllegalArgumentException(word + " is not in the word embeddings vocabulary");
-      CompareTask ct = new CompareTask(word,n,_em);
-      ct.invoke();
-      SimilarWord[] res = new SimilarWord[n];
-      while(!ct._res.isEmpty()) res[--n] = ct._res.poll();
-      return res;
+      return _em.mostSimilar(word,n);
     }
+
+    /**
+     * Two-stage mostSimilar: shortlist k*n candidates with the reduced index, then re-rank them exactly.
+     * Requires useProjection, useSignatures or loadSignatures to have been called.
+     *
+     * @param word find similar words to this word
+     * @param n return this number of words similar to word
+     * @param k shortlist size multiplier; larger k trades speed for recall
+     * @return return n most similar words
+     */
+    public SimilarWord[] mostSimilar(String word, int n, int k) {
+      return _em.mostSimilar(word,n,k);
+    }
+
+    /**
+     * Build a reduced-dimension random projection of the vocabulary for use by mostSimilar(word,n,k).
+     * @param dim reduced dimension, e.g. 32 or 64
+     * @param seed seed for the random projection matrix
+     */
+    public void useProjection(int dim, long seed) { _em.useProjection(dim,seed); }
+
+    /**
+     * Compute random hyperplane (SimHash) signatures of the vocabulary for use by mostSimilar(word,n,k).
+     * Candidates are then shortlisted by the Hamming distance of their signatures.
+     * @param bits signature length in bits; rounded up to a multiple of 64
+     * @param seed seed for the random hyperplanes
+     */
+    public void useSignatures(int bits, long seed) { _em.useSignatures(bits,seed); }
+
+    /**
+     * Persist the signatures computed by useSignatures, e.g. next to the .bin file as glove.bin.sig.
+     * @param path write the signatures here
+     */
+    public void saveSignatures(String path) { _em.saveSignatures(path); }
+
+    /**
+     * Load signatures written by saveSignatures instead of recomputing them.
+     * @param path read the signatures from here
+     */
+    public void loadSignatures(String path) { _em.loadSignatures(path); }
+
+    /**
+     * Average recall of mostSimilar(word,n,k) against the exact mostSimilar(word,n) over the probe words.
+     * @param probes words to query
+     * @param n number of similar words per query
+     * @param k shortlist size multiplier
+     * @return fraction of the exact top n words found by the two-stage search
+     */
+    public double recall(String[] probes, int n, int k) { return _em.recall(probes,n,k); }
+
+    /**
+     * Add word w to the vocabulary, or replace its embeddings if it is already present.
+     * Visible to all subsequent calls to get, has, and mostSimilar; the loaded file is untouched.
+     *
+     * @param w the word to add or replace
+     * @param vec the word embeddings of w; must have the same length as the loaded vectors
+     */
+    public void put(String w, float[] vec) { _em.put(w,vec); }
+
+    /**
+     * Remove word w from the vocabulary.
+     * @param w the word to remove
+     * @return true if w was in the vocabulary
+     */
+    public boolean remove(String w) { return _em.remove(w); }
+
+    /**
+     * Write the vocabulary, including all added, replaced and removed words, to a new .bin file.
+     * @param path write the new embeddings here
+     */
+    public void compact(String path) { _em.compact(path); }
+
+    /**
+     * Sort the vocabulary by the unsigned byte order of its words for idsWithPrefix and idsInRange.
+     */
+    public void buildSortedIndex() { _em.buildSortedIndex(); }
+
+    /**
+     * Persist the sorted index built by buildSortedIndex, e.g. next to the .bin file as glove.bin.sorted.
+     * @param path write the sorted index here
+     */
+    public void saveSortedIndex(String path) { _em.saveSortedIndex(path); }
+
+    /**
+     * Load a sorted index written by saveSortedIndex instead of sorting again.
+     * @param path read the sorted index from here
+     */
+    public void loadSortedIndex(String path) { _em.loadSortedIndex(path); }
+
+    /**
+     * Ids of all words starting with prefix, in sorted order. Words added through put are not indexed
+     * until they are compacted into a new .bin.
+     *
+     * @param prefix e.g. "new_york"
+     * @return ids usable with get(int,float[]) and word(int)
+     */
+    public int[] idsWithPrefix(String prefix) { return _em.idsWithPrefix(prefix); }
+
+    /**
+     * Ids of all words w with from <= w < to, in sorted order.
+     * @param from inclusive lower bound; null for none
+     * @param to exclusive upper bound; null for none
+     * @return ids usable with get(int,float[]) and word(int)
+     */
+    public int[] idsInRange(String from, String to) { return _em.idsInRange(from,to); }
+
+    /**
+     * @param id a word id
+     * @return the word with this id
+     */
+    public String word(int id) { return _em.word(id); }
+
+    /**
+     * Fill res with the word embeddings of the word with this id.
+     * @param id a word id
+     * @param res fill this float array with the word embeddings
+     */
+    public void get(int id, float[] res) { _em.get(id,res); }
+
+    /**
+     * Parallel k-means over the vocabulary.
+     * @param k number of clusters
+     * @param iters max number of iterations; stops early once no word changes cluster
+     * @param plusplus true for k-means++ seeding; false for k random words
+     * @param seed random seed
+     * @return the clusters
+     */
+    public WordClusters kmeans(int k, int iters, boolean plusplus, long seed) { return _em.kmeans(k,iters,plusplus,seed); }
+
+    /**
+     * Mini-batch k-means over the vocabulary; much cheaper per iteration than kmeans.
+     * @param k number of clusters
+     * @param iters number of batches
+     * @param batch words per batch
+     * @param seed random seed
+     * @return the clusters
+     */
+    public WordClusters miniBatchKMeans(int k, int iters, int batch, long seed) { return _em.miniBatchKMeans(k,iters,batch,seed); }
+
+    /**
+     * Load clusters written by WordClusters.save.
+     * @param path read the clusters from here
+     * @return the clusters
+     */
+    public WordClusters loadClusters(String path) { return _em.loadClusters(path); }
+
+    /**
+     * Export the vocabulary as a dense float32 matrix, one row per word, plus a word list.
+     * Rows are decoded in parallel into a memory-mapped file; the matrix is never held on heap.
+     *
+     * @param matrixPath write the matrix here
+     * @param vocabPath write one word per line here, in row order; may be null
+     * @param npy true to write a .npy file; false for raw little-endian float32
+     * @param words export only these words, in this order; null exports the whole vocabulary
+     */
+    public void export(String matrixPath, String vocabPath, boolean npy, String[] words) {
+      _em.export(matrixPath,vocabPath,npy,words);
+    }
+
+    /**
+     * Cache decoded vectors and mostSimilar(word,n) results, each bounded to roughly the given number of bytes.
+     * Replaces any previous cache. Entries computed before a put or remove are never served.
+     *
+     * @param vectorBytes memory budget for decoded vectors; 0 disables vector caching
+     * @param resultBytes memory budget for mostSimilar results; 0 disables result caching
+     */
+    public void enableCache(long vectorBytes, long resultBytes) { _em.enableCache(vectorBytes,resultBytes); }
+
+    /**
+     * Drop the cache enabled by enableCache.
+     */
+    public void disableCache() { _em.disableCache(); }
+
+    /**
+     * @return hit, miss and eviction counts of the cache enabled by enableCache
+     */
+    public CacheStats cacheStats() { return _em.cacheStats(); }
   }
 
   private transient HashMap<BufferedBytes,BufferedBytes> _map;
   // takes the result of a parse_bin call and flattens all maps into a single map
-  private WordEmbeddings(HashMap<BufferedBytes,BufferedBytes>[] maps) {
+  private WordEmbeddings(EmbeddingsParser ep) {
     _map=new HashMap<>();
-    for (HashMap<BufferedBytes, BufferedBytes> map : maps) _map.putAll(map);
-    _keys = _map.keySet().toArray(new BufferedBytes[_map.size()]);
+    for (HashMap<BufferedBytes, BufferedBytes> map : ep._maps) _map.putAll(map);
+    // file order makes ids stable across loads so per-word side files can be persisted; a word that
+    // appears more than once keeps the record get() sees, which is the last one in the file
+    ArrayList<BufferedBytes> keys = new ArrayList<>(_map.size());
+    for (ArrayList<BufferedBytes> words : ep._words)
+      for (BufferedBytes bb : words)
+        if( _map.get(bb)==bb ) keys.add(bb);
+    _keys = keys.toArray(new BufferedBytes[keys.size()]);
+    _scale = 1.f/(float)Math.pow(10,ep._scale);
+    _exp = ep._scale;
+    _shift = ep._shift;
+    _vec_sz = ep._vec_sz;
+    _nchks = ep._nchks;
+    _str_type = ep._str_type;
   }
 
+  /**
+   * Load word embeddings from any .bin file.
+   * @param path path to the embeddings
+   * @return the loaded embeddings
+   */
+  public static WordEmbeddings load(String path) {
+    return new WordEmbeddings(EmbeddingsParser.parse(path));
+  }
 
   public void get(String w, float[] res) {
     get(new BufferedBytes(w.getBytes(UTF_8)),res);
   }
 
+  public boolean has(String word) {
+    return has(new BufferedBytes(word.getBytes(UTF_8)));
+  }
+
+  boolean has(BufferedBytes bb) {
+    return lookup(bb,_overlay.snapshot())!=null;
+  }
+
+  /**
+   * Compute the cosine distance for this word and each word in the vocabulary. Return the top n most similar words.
+   * @param word find similar words to this word
+   * @param n return this number of words similar to word
+   * @return return n most similar words
+   */
+  public SimilarWord[] mostSimilar(String word, int n) {
+    if( n<=0 ) throw new IllegalArgumentException("n must be >= 1; got: " + n);
+    // a single snapshot for the whole query, so concurrent overlay writes can't be half-seen
+    EmbeddingsOverlay.Snapshot snap = _overlay.snapshot();
+    BufferedBytes w = new BufferedBytes(word.getBytes(UTF_8));
+    EmbeddingsCache c = _cache;
+    SimilarWord[] res = c==null ? null : c.mostSimilar(w,n,snap);
+    if( res!=null ) return res;
+    if( lookup(w,snap)==null ) throw new IllegalArgumentException(word + " is not in the word embeddings vocabulary");
+    CompareTask ct = new CompareTask(w,n,this,snap);
+    ct.invoke();
+    res = new SimilarWord[Math.min(n,ct._res.size())];
+    int i=res.length;
+    while(!ct._res.isEmpty()) res[--i] = ct._res.poll();
+    if( c!=null ) c.putMostSimilar(w,n,res.clone(),snap);
+    return res;
+  }
+
+  public SimilarWord[] mostSimilar(String word, int n, int k) {
+    if( n<=0 ) throw new IllegalArgumentException("n must be >= 1; got: " + n);
+    if( k<=0 ) throw new IllegalArgumentException("k must be >= 1; got: " + k);
+    ShortlistIndex<?> idx = _shortlist;
+    if( idx==null ) throw new IllegalStateException("no shortlist index; call useProjection, useSignatures or loadSignatures first");
+    EmbeddingsOverlay.Snapshot snap = _overlay.snapshot();
+    BufferedBytes w = new BufferedBytes(word.getBytes(UTF_8));
+    BufferedBytes rec = lookup(w,snap);
+    if( rec==null ) throw new IllegalArgumentException(word + " is not in the word embeddings vocabulary");
+    float[] wordEm = new float[_vec_sz];
+    decode(rec,wordEm);
+
+    // stage 1: coarse scan; one extra candidate since the word itself is usually its own best match
+    int[] ids = idx.shortlist(wordEm,(int)Math.min(Integer.MAX_VALUE,(long)k*n+1));
+
+    // stage 2: exact re-rank of the shortlist, plus the (small) overlay which the index doesn't cover
+    PriorityQueue<SimilarWord> top = new PriorityQueue<>(n);
+    float[] ems = new float[_vec_sz];
+    for( int id: ids ) {
+      BufferedBytes key = _keys[id];
+      if( key.equals(w) || snap.shadows(key) ) continue;
+      decode(id,ems);
+      offer(top,n,key,CompareTask.cosine_distance(wordEm,ems));
+    }
+    for( BufferedBytes live: snap._live ) {
+      if( live.equals(w) ) continue;
+      decode(live,ems);
+      offer(top,n,live,CompareTask.cosine_distance(wordEm,ems));
+    }
+    SimilarWord[] res = new SimilarWord[top.size()];
+    n=res.length;
+    while(!top.isEmpty()) res[--n] = top.poll();
+    return res;
+  }
+
+  // keep the n smallest distances; the heap head is the largest kept distance
+  private static void offer(PriorityQueue<SimilarWord> top, int n, BufferedBytes word, float dist) {
+    if( top.size() < n ) top.add(new SimilarWord(word,dist));
+    else if( top.peek()._dist > dist ) {
+      top.poll();
+      top.add(new SimilarWord(word,dist));
+    }
+  }
+
+  public void useProjection(int dim, long seed) {
+    long start = System.currentTimeMillis();
+    _shortlist = new ProjectionIndex(this,dim,seed);
+    System.out.println("Projected " + _keys.length + " embeddings to " + dim + " dimensions in " + (System.currentTimeMillis() - start)/1000. + " seconds.");
+  }
+
+  public void useSignatures(int bits, long seed) {
+    long start = System.currentTimeMillis();
+    _shortlist = new SignatureIndex(this,bits,seed);
+    System.out.println("Computed " + bits + " bit signatures for " + _keys.length + " embeddings in " + (System.currentTimeMillis() - start)/1000. + " seconds.");
+  }
+
+  public void saveSignatures(String path) {
+    ShortlistIndex<?> idx = _shortlist;
+    if( !(idx instanceof SignatureIndex) ) throw new IllegalStateException("no signatures; call useSignatures first");
+    ((SignatureIndex)idx).save(path);
+  }
+
+  public void loadSignatures(String path) {
+    _shortlist = SignatureIndex.load(this,path);
+  }
+
+  public double recall(String[] probes, int n, int k) {
+    long found=0, total=0;
+    for( String p: probes ) {
+      HashSet<BufferedBytes> exact = new HashSet<>();
+      for( SimilarWord sw: mostSimilar(p,n) ) exact.add(sw._word);
+      for( SimilarWord sw: mostSimilar(p,n,k) )
+        if( exact.contains(sw._word) ) found++;
+      total += exact.size();
+    }
+    return total==0 ? 1 : (double)found/total;
+  }
+
+  public void put(String w, float[] vec) {
+    if( vec.length!=_vec_sz ) throw new IllegalArgumentException("expected " + _vec_sz + " values; got: " + vec.length);
+    byte[] wb = w.getBytes(UTF_8);
+    byte[] rec = new byte[wb.length + NBYTES*_vec_sz];
+    System.arraycopy(wb,0,rec,0,wb.length);
+    double pow10 = Math.pow(10,_exp);
+    int i=wb.length;
+    for( float v: vec ) {
+      // inverse of the decode in get: v == (r + _shift)*_scale
+      long r = Math.round(v*pow10) - _shift;
+      if( Float.isNaN(v) || r < 0 || r >= 1<<24 )
+        throw new IllegalArgumentException("cannot encode " + v + " for word " + w + " with scale 1e-" + _exp + " and shift " + _shift);
+      rec[i++] = (byte) r;
+      rec[i++] = (byte)(r >>> 8);
+      rec[i++] = (byte)(r >>> 16);
+    }
+    _overlay.put(new BufferedBytes(rec,0,wb.length));
+  }
+
+  public boolean remove(String w) {
+    BufferedBytes bb = new BufferedBytes(w.getBytes(UTF_8));
+    boolean had = has(bb);
+    _overlay.remove(bb,_map.containsKey(bb));
+    return had;
+  }
+
+  public void compact(String path) {
+    EmbeddingsWriter.write(path,_str_type,_vec_sz,_exp,_shift,_nchks,records(_overlay.snapshot()));
+  }
+
+  public void export(String matrixPath, String vocabPath, boolean npy, String[] words) {
+    long start = System.currentTimeMillis();
+    EmbeddingsOverlay.Snapshot snap = _overlay.snapshot();
+    BufferedBytes[] recs;
+    if( words==null ) recs = records(snap);
+    else {
+      recs = new BufferedBytes[words.length];
+      for(int i=0;i<words.length;++i)
+        if( (recs[i]=lookup(new BufferedBytes(words[i].getBytes(UTF_8)),snap))==null )
+          throw new IllegalArgumentException(words[i] + " is not in the word embeddings vocabulary");
+    }
+    EmbeddingsExporter.export(this,recs,matrixPath,vocabPath,npy);
+    System.out.println("Exported " + recs.length + " embeddings in " + (System.currentTimeMillis() - start)/1000. + " seconds.");
+  }
+
+  public void buildSortedIndex() {
+    long start = System.currentTimeMillis();
+    _sorted = new SortedVocab(_keys);
+    System.out.println("Sorted " + _keys.length + " words in " + (System.currentTimeMillis() - start)/1000. + " seconds.");
+  }
+
+  public void saveSortedIndex(String path) { sorted().save(path,fingerprint()); }
+
+  public void loadSortedIndex(String path) { _sorted = SortedVocab.load(_keys,fingerprint(),path); }
+
+  public int[] idsWithPrefix(String prefix) {
+    return live(sorted().prefix(prefix.getBytes(UTF_8)));
+  }
+
+  public int[] idsInRange(String from, String to) {
+    return live(sorted().range(from==null ? null : from.getBytes(UTF_8),to==null ? null : to.getBytes(UTF_8)));
+  }
+
+  public String word(int id) { return _keys[id].toString(); }
+
+  public void get(int id, float[] res) { get(_keys[id],res); }
+
+  public WordClusters kmeans(int k, int iters, boolean plusplus, long seed) {
+    long start = System.currentTimeMillis();
+    WordClusters wc = WordClusters.kmeans(this,k,iters,plusplus,seed);
+    System.out.println("Clustered " + _keys.length + " embeddings into " + k + " clusters in " + (System.currentTimeMillis() - start)/1000. + " seconds.");
+    return wc;
+  }
+
+  public WordClusters miniBatchKMeans(int k, int iters, int batch, long seed) {
+    long start = System.currentTimeMillis();
+    WordClusters wc = WordClusters.miniBatch(this,k,iters,batch,seed);
+    System.out.println("Clustered " + _keys.length + " embeddings into " + k + " clusters in " + (System.currentTimeMillis() - start)/1000. + " seconds.");
+    return wc;
+  }
+
+  public WordClusters loadClusters(String path) { return WordClusters.load(this,path); }
+
+  public void enableCache(long vectorBytes, long resultBytes) {
+    _cache = new EmbeddingsCache(vectorBytes,resultBytes);
+  }
+
+  public void disableCache() { _cache = null; }
+
+  public CacheStats cacheStats() {
+    EmbeddingsCache c = _cache;
+    if( c==null ) throw new IllegalStateException("no cache; call enableCache first");
+    return new CacheStats(c);
+  }
+
+  private SortedVocab sorted() {
+    SortedVocab sv = _sorted;
+    if( sv==null ) throw new IllegalStateException("no sorted index; call buildSortedIndex or loadSortedIndex first");
+    return sv;
+  }
+
+  // drop ids of words removed through the overlay
+  private int[] live(int[] ids) {
+    EmbeddingsOverlay.Snapshot snap = _overlay.snapshot();
+    if( snap._map.isEmpty() ) return ids;
+    int n=0;
+    for( int id: ids )
+      if( snap.get(_keys[id])!=EmbeddingsOverlay.TOMBSTONE ) ids[n++]=id;
+    return Arrays.copyOf(ids,n);
+  }
+
+  // order-dependent hash of the vocabulary; guards against loading side files built for a different .bin
+  int fingerprint() {
+    int h=0;
+    for( BufferedBytes bb: _keys ) h = 31*h + bb.hashCode();
+    return h;
+  }
+
+  // every record in the vocabulary as seen through snap: base words in id order, then the overlay's
+  private BufferedBytes[] records(EmbeddingsOverlay.Snapshot snap) {
+    ArrayList<BufferedBytes> recs = new ArrayList<>(_keys.length + snap._live.length);
+    for( BufferedBytes k: _keys )
+      if( !snap.shadows(k) ) recs.add(k);
+    recs.addAll(Arrays.asList(snap._live));
+    return recs.toArray(new BufferedBytes[recs.size()]);
+  }
+
+  // the record for word s as seen through the overlay snapshot; null if s is not in the vocabulary
+  private BufferedBytes lookup(BufferedBytes s, EmbeddingsOverlay.Snapshot snap) {
+    BufferedBytes bb = snap.get(s);
+    if( bb==null ) return _map.get(s);
+    return bb==EmbeddingsOverlay.TOMBSTONE ? null : bb;
+  }
+
   private void get(BufferedBytes s, float[] res) {
+    EmbeddingsOverlay.Snapshot snap = _overlay.snapshot();
+    EmbeddingsCache c = _cache;
+    if( c==null ) {
+      get(s,res,snap);
+      return;
+    }
+    float[] v = c.vector(s,snap);
+    if( v!=null ) {
+      System.arraycopy(v,0,res,0,v.length);
+      return;
+    }
+    if( get(s,res,snap) ) c.putVector(s,Arrays.copyOf(res,_vec_sz),snap);
+  }
+
+  // false if s is not in the vocabulary; res is then all zeros
+  private boolean get(BufferedBytes s, float[] res, EmbeddingsOverlay.Snapshot snap) {
     Arrays.fill(res,0);
-    BufferedBytes bb= _map.get(s);
+    BufferedBytes bb= lookup(s,snap);
     if( bb==null )
-      return;
+      return false;
+    decode(bb,res);
+    return true;
+  }
+
+  // fill res with the vector of base word _keys[id], as get would see it without the overlay
+  void decode(int id, float[] res) {
+    decode(_keys[id],res);
+  }
+
+  // fill res with the vector of record bb
+  void decode(BufferedBytes bb, float[] res) {
     int off=bb._off + bb._len; // _off is the start of the string, _len is the length of the string
     byte[] buf = bb._buf;
     int idx=0;
@@ -139,6 +603,7 @@ public class WordEmbeddings {
     int _lo, _hi;
     boolean _rootTask; // top level fork point; all results reduced here
     private final BufferedBytes[] _keys;
+    private final EmbeddingsOverlay.Snapshot _snap;
     private final WordEmbeddings _em;
     private final BufferedBytes _theWord;
     private final int _chkSize; // number of items ina "leaf" node
@@ -147,17 +612,19 @@ public class WordEmbeddings {
     PriorityQueue<SimilarWord> _res;
     final float[] _wordEm;
 
-    CompareTask(String word, int n, WordEmbeddings em) {
-      _theWord = new BufferedBytes(word.getBytes(UTF_8));
+    // indices [0,_keys.length) are base words; the overlay's live records follow
+    CompareTask(BufferedBytes word, int n, WordEmbeddings em, EmbeddingsOverlay.Snapshot snap) {
+      _theWord = word;
       _lo=0;
-      _hi=em._map.size();
-      _chkSize= _hi/em._nchks;
+      _hi=em._keys.length + snap._live.length;
+      _chkSize= Math.max(2,_hi/em._nchks); // a leaf of 1 would split into itself forever
       _keys = em._keys;
+      _snap = snap;
       _em = em;
       _rootTask=true;
       _n=n;
       _wordEm = new float[em._vec_sz];
-      em.get(_theWord,_wordEm);
+      em.get(_theWord,_wordEm,snap);
       _res = new PriorityQueue<>(_n);
     }
 
@@ -167,6 +634,7 @@ public class WordEmbeddings {
       _chkSize=cc._chkSize;
       _rootTask=false;
       _keys=cc._keys;
+      _snap=cc._snap;
       _em=cc._em;
       _lo=cc._lo;
       _hi=cc._hi;
@@ -211,10 +679,15 @@ public class WordEmbeddings {
 
     void compute1() {
       float[] ems = new float[_em._vec_sz];
+      final int nbase = _keys.length;
       while(_lo < _hi) {
-        BufferedBytes word = _keys[_lo++];
+        int i = _lo++;
+        BufferedBytes word = i < nbase ? _keys[i] : _snap._live[i-nbase];
         if( word.equals(_theWord) ) continue; // don't include the word of interest
-        _em.get(word,ems);
+        if( i < nbase ) {
+          if( _snap.shadows(word) ) continue; // replaced or removed; the overlay has the final say
+          _em.decode(word,ems);
+        } else _em.decode(word,ems);
         float dist = cosine_distance(_wordEm,ems); // smaller => more similar
         if( _res.size() < _n ) _res.add(new SimilarWord(word,dist));
         else {
@@ -242,6 +715,30 @@ public class WordEmbeddings {
     }
   }
 
+  /** Point-in-time counters of the cache enabled by enableCache. */
+  public static class CacheStats {
+    final long _vecHits, _vecMisses, _resHits, _resMisses, _evictions, _bytes;
+    CacheStats(EmbeddingsCache c) {
+      _vecHits=c._vecHits.sum();
+      _vecMisses=c._vecMisses.sum();
+      _resHits=c._resHits.sum();
+      _resMisses=c._resMisses.sum();
+      _evictions=c._evictions.sum();
+      _bytes=c.bytes();
+    }
+    public long vectorHits() { return _vecHits; }
+    public long vectorMisses() { return _vecMisses; }
+    public long resultHits() { return _resHits; }
+    public long resultMisses() { return _resMisses; }
+    public long evictions() { return _evictions; }
+    /** @return estimated bytes held by the cache */
+    public long bytes() { return _bytes; }
+    @Override public String toString() {
+      return "vectors " + _vecHits + " hits/" + _vecMisses + " misses, results " + _resHits + " hits/" + _resMisses +
+          " misses, " + _evictions + " evictions, " + _bytes + " bytes";
+    }
+  }
+
   public static class SimilarWord implements Comparable<SimilarWord> {
     BufferedBytes _word;
     float _dist; // cosine similarity
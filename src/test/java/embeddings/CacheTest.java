@@ -0,0 +1,74 @@
+package embeddings;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static embeddings.OverlayTest.VEC_SZ;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CacheTest {
+
+  @Test public void testHitsAndInvalidation() throws IOException {
+    WordEmbeddings em = WordEmbeddings.load(OverlayTest.writeBin(1000,4));
+    float[] expected = new float[VEC_SZ], res = new float[VEC_SZ];
+    em.get("w5",expected);
+    WordEmbeddings.SimilarWord[] top10 = em.mostSimilar("w5",10);
+
+    em.enableCache(1<<20,1<<20);
+    em.get("w5",res);
+    em.get("w5",res);
+    assertArrayEquals(expected,res,0);
+    em.get("nope",res); // misses are not cached
+    assertArrayEquals(new float[VEC_SZ],res,0);
+    assertEquals(1,em.cacheStats().vectorHits());
+    assertEquals(2,em.cacheStats().vectorMisses());
+
+    // a larger n serves every smaller n
+    assertEquals(words(top10),words(em.mostSimilar("w5",10)));
+    assertEquals(top10[0].word(),em.mostSimilar("w5",1)[0].word());
+    assertEquals(words(top10),words(em.mostSimilar("w5",10)));
+    assertEquals(2,em.cacheStats().resultHits());
+    em.mostSimilar("w5",20);
+    assertEquals(2,em.cacheStats().resultMisses());
+
+    // overlay writes invalidate both vectors and results
+    float[] neg = new float[VEC_SZ];
+    for(int i=0;i<VEC_SZ;++i) neg[i] = -expected[i];
+    em.put("w5",neg);
+    em.get("w5",res);
+    assertArrayEquals(neg,res,1e-3f);
+    String near = em.mostSimilar("w5",1)[0].word();
+    em.remove(near);
+    assertTrue(!near.equals(em.mostSimilar("w5",1)[0].word()));
+    em.remove("w5");
+    em.get("w5",res);
+    assertArrayEquals(new float[VEC_SZ],res,0);
+  }
+
+  @Test public void testBounded() throws IOException {
+    WordEmbeddings em = WordEmbeddings.load(OverlayTest.writeBin(5000,4));
+    em.enableCache(64<<10,0);
+    float[] res = new float[VEC_SZ];
+    // a hot word survives a scan of cold ones: it sits in the protected segment after its second hit
+    em.get("w1",res);
+    em.get("w1",res);
+    for(int i=0;i<5000;++i) em.get("w" + i,res);
+    long hits = em.cacheStats().vectorHits();
+    em.get("w1",res);
+    assertEquals(hits+1,em.cacheStats().vectorHits());
+    assertTrue(em.cacheStats().evictions() > 0);
+    assertTrue(em.cacheStats().toString(),em.cacheStats().bytes() <= 64<<10);
+    em.mostSimilar("w1",5);
+    em.mostSimilar("w1",5); // results budget is 0: nothing held
+    assertEquals(0,em.cacheStats().resultHits());
+  }
+
+  private static String words(WordEmbeddings.SimilarWord[] sws) {
+    StringBuilder sb = new StringBuilder();
+    for( WordEmbeddings.SimilarWord sw: sws ) sb.append(sw.word()).append(' ');
+    return sb.toString();
+  }
+}
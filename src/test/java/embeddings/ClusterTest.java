@@ -0,0 +1,97 @@
+package embeddings;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static embeddings.EmbeddingsParser.NBYTES;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class ClusterTest {
+  static final int K=5;
+  static final int VEC_SZ=16;
+
+  // K well separated blobs; word "b<c>_<i>" belongs to blob c
+  static String writeBlobs(int perBlob) throws IOException {
+    Random r = new Random(3);
+    BufferedBytes[] recs = new BufferedBytes[K*perBlob];
+    for(int c=0;c<K;++c)
+      for(int i=0;i<perBlob;++i) {
+        byte[] w = ("b" + c + "_" + i).getBytes(UTF_8);
+        byte[] rec = new byte[w.length + NBYTES*VEC_SZ];
+        System.arraycopy(w,0,rec,0,w.length);
+        for(int j=0;j<VEC_SZ;++j) {
+          // blob c sits at +/-10 in dimension c, with noise of +/-0.5; scale 1e-4, shift -500000
+          double x = (j==c ? 10 : 0) + r.nextDouble() - 0.5;
+          int q = (int)Math.round(x*1e4) + 500000;
+          int off = w.length + j*NBYTES;
+          rec[off]=(byte)q; rec[off+1]=(byte)(q>>8); rec[off+2]=(byte)(q>>16);
+        }
+        recs[c*perBlob+i] = new BufferedBytes(rec,0,w.length);
+      }
+    File f = File.createTempFile("blobs",".bin");
+    f.deleteOnExit();
+    EmbeddingsWriter.write(f.getPath(),false,(short)VEC_SZ,(byte)4,-500000,4,recs);
+    return f.getPath();
+  }
+
+  @Test public void testKMeans() throws IOException {
+    WordEmbeddings em = WordEmbeddings.load(writeBlobs(2000));
+    checkBlobs(em,em.kmeans(K,50,true,11),2000);
+  }
+
+  @Test public void testMiniBatch() throws IOException {
+    WordEmbeddings em = WordEmbeddings.load(writeBlobs(2000));
+    // random seeding may put two centroids in one blob; try seeds until one lands in every blob
+    WordClusters wc=null;
+    for(long seed=0;seed<20;++seed) {
+      wc = em.miniBatchKMeans(K,200,256,seed);
+      if( distinct(wc) ) break;
+    }
+    checkBlobs(em,wc,2000);
+  }
+
+  @Test public void testPersistence() throws IOException {
+    WordEmbeddings em = WordEmbeddings.load(writeBlobs(500));
+    WordClusters wc = em.kmeans(K,50,true,5);
+    File f = File.createTempFile("clusters",".bin");
+    f.deleteOnExit();
+    wc.save(f.getPath());
+    WordClusters wc2 = em.loadClusters(f.getPath());
+    for(int c=0;c<K;++c) {
+      assertArrayEquals(wc.membersOf(c),wc2.membersOf(c));
+      assertArrayEquals(wc.centroid(c),wc2.centroid(c),0);
+    }
+  }
+
+  private static boolean distinct(WordClusters wc) {
+    boolean[] used = new boolean[K];
+    for(int c=0;c<K;++c) used[wc.clusterOf("b" + c + "_0")]=true;
+    for( boolean u: used ) if( !u ) return false;
+    return true;
+  }
+
+  private static void checkBlobs(WordEmbeddings em, WordClusters wc, int perBlob) {
+    for(int c=0;c<K;++c) {
+      int cl = wc.clusterOf("b" + c + "_0");
+      int[] members = wc.membersOf(cl);
+      assertEquals(perBlob,members.length);
+      for( int id: members ) {
+        assertEquals(cl,wc.clusterOf(id));
+        assertEquals("b" + c + "_",em.word(id).substring(0,3));
+      }
+    }
+    assertEquals(-1,wc.clusterOf("nope"));
+    // words added later land in the nearest cluster
+    float[] v = new float[VEC_SZ];
+    em.get("b3_7",v);
+    em.put("late",v);
+    assertEquals(wc.clusterOf("b3_7"),wc.clusterOf("late"));
+    assertNotEquals(wc.clusterOf("b2_7"),wc.clusterOf("late"));
+  }
+}
@@ -0,0 +1,78 @@
+package embeddings;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ExportTest {
+
+  @Test public void testNpyAll() throws IOException {
+    File f = File.createTempFile("synthetic",".bin");
+    f.deleteOnExit();
+    SyntheticBin gen = new SyntheticBin(3000,50);
+    gen._nchks=7;
+    gen.write(f.getPath());
+    WordEmbeddings em = WordEmbeddings.load(f.getPath());
+
+    File npy = File.createTempFile("export",".npy");
+    File vocab = File.createTempFile("export",".txt");
+    npy.deleteOnExit();
+    vocab.deleteOnExit();
+    em.export(npy.getPath(),vocab.getPath(),true,null);
+
+    ByteBuffer bb = ByteBuffer.wrap(Files.readAllBytes(npy.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+    assertEquals((byte)0x93,bb.get(0));
+    assertEquals("NUMPY",new String(bb.array(),1,5,US_ASCII));
+    int hlen = 10 + (bb.getShort(8) & 0xFFFF);
+    assertEquals(0,hlen%64);
+    String dict = new String(bb.array(),10,hlen-10,US_ASCII);
+    assertTrue(dict, dict.contains("'shape': (3000, 50)"));
+    assertEquals(hlen + 3000L*50*4,npy.length());
+    check(em,Files.readAllLines(vocab.toPath(),UTF_8),bb,hlen);
+  }
+
+  @Test public void testRawSubset() throws IOException {
+    WordEmbeddings em = WordEmbeddings.load(OverlayTest.writeBin(100,4));
+    float[] v = new float[OverlayTest.VEC_SZ];
+    em.get("w1",v);
+    em.put("added",v);
+    String[] words = new String[]{"w42","added","w0","w99"};
+    File raw = File.createTempFile("export",".f32");
+    File vocab = File.createTempFile("export",".txt");
+    raw.deleteOnExit();
+    vocab.deleteOnExit();
+    em.export(raw.getPath(),vocab.getPath(),false,words);
+    assertEquals(words.length*OverlayTest.VEC_SZ*4L,raw.length());
+    List<String> lines = Files.readAllLines(vocab.toPath(),UTF_8);
+    assertArrayEquals(words,lines.toArray(new String[lines.size()]));
+    check(em,lines,ByteBuffer.wrap(Files.readAllBytes(raw.toPath())).order(ByteOrder.LITTLE_ENDIAN),0);
+  }
+
+  @Test(expected = IllegalArgumentException.class) public void testMissingWord() throws IOException {
+    WordEmbeddings em = WordEmbeddings.load(OverlayTest.writeBin(10,1));
+    em.export(File.createTempFile("export",".f32").getPath(),null,false,new String[]{"nope"});
+  }
+
+  private static void check(WordEmbeddings em, List<String> words, ByteBuffer bb, int off) {
+    float[] expected = new float[em._vec_sz];
+    float[] actual = new float[em._vec_sz];
+    bb.position(off);
+    for( String w: words ) {
+      em.get(w,expected);
+      for(int i=0;i<actual.length;++i) actual[i] = bb.getFloat();
+      assertArrayEquals(w,expected,actual,0);
+    }
+    assertEquals(bb.limit(),bb.position());
+  }
+}
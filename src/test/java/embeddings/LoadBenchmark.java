@@ -0,0 +1,118 @@
+package embeddings;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * End-to-end load benchmark over synthetic embeddings.
+ *
+ * Reports load throughput, heap footprint and GC time for a range of chunk counts. The heap size is whatever the
+ * JVM was started with; bench.sh sweeps it by launching main once per heap size.
+ *
+ *   java -Xmx4g -cp build/*:lib/* embeddings.LoadBenchmark [nwords] [vec_sz] [reps] [nchks...]
+ */
+public class LoadBenchmark {
+
+  // small enough for any CI machine; main takes bigger configurations
+  @Test public void testLoadScaling() {
+    bench(50000,300,2,new int[]{1,4,16,64});
+  }
+
+  public static void main(String[] args) {
+    int nwords = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    int vec_sz = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+    int reps   = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+    int[] nchks = args.length > 3 ? new int[args.length-3] : new int[]{0,1,16,256};
+    for(int i=3;i<args.length;++i) nchks[i-3] = Integer.parseInt(args[i]);
+    bench(nwords,vec_sz,reps,nchks);
+  }
+
+  // nchks of 0 lets the generator pick ~4MB chunks like the real files
+  static void bench(int nwords, int vec_sz, int reps, int[] nchks) {
+    System.out.println(String.format("# nwords=%d vec_sz=%d max_heap=%dMB readers=%d",
+        nwords,vec_sz,Runtime.getRuntime().maxMemory()>>20,EmbeddingsParser.DEFAULT_READERS));
+    System.out.println("# nchks      MB    best_s    MB/s     words/s   heap_MB   gc_ms");
+    for( int n: nchks ) {
+      File f = new File(System.getProperty("java.io.tmpdir"),"synthetic_" + nwords + "_" + vec_sz + "_" + n + ".bin");
+      f.deleteOnExit();
+      SyntheticBin gen = new SyntheticBin(nwords,vec_sz);
+      gen._nchks=n;
+      long nbytes = gen.write(f.getPath());
+
+      double best=Double.MAX_VALUE;
+      long heap=0, gc=0;
+      int loadedChks=0;
+      EmbeddingsParser ep=null;
+      for(int r=0;r<reps;++r) {
+        ep=null; // drop the previous load before taking the baseline
+        long heap0 = usedHeap();
+        long gc0 = gcMillis();
+        long start = System.nanoTime();
+        ep = parse(f.getPath());
+        best = Math.min(best,(System.nanoTime() - start)/1e9);
+        gc = gcMillis() - gc0;
+        heap = usedHeap() - heap0; // what the loaded embeddings keep alive
+        assertEquals(nwords,count(ep));
+        loadedChks=ep._nchks;
+      }
+      System.out.println(String.format("%7d %7.1f %9.3f %7.1f %11.0f %9.1f %7d",
+          loadedChks,nbytes/1e6,best,nbytes/1e6/best,nwords/best,heap/1e6,gc));
+      f.delete();
+    }
+  }
+
+  // Load on a fresh pool that is torn down afterwards. Idle common pool workers can keep the last task they ran,
+  // and with it the whole previous load, reachable; that would skew the next heap baseline.
+  private static EmbeddingsParser parse(final String path) {
+    ForkJoinPool pool = new ForkJoinPool(ForkJoinPool.getCommonPoolParallelism());
+    try {
+      return pool.submit(new Callable<EmbeddingsParser>() {
+        @Override public EmbeddingsParser call() { return EmbeddingsParser.parse(path); }
+      }).get();
+    } catch( InterruptedException | ExecutionException e ) {
+      throw new RuntimeException(e);
+    } finally {
+      pool.shutdown();
+      try { pool.awaitTermination(1,TimeUnit.MINUTES); } catch( InterruptedException ignore ) { }
+    }
+  }
+
+  // in its own method so no hidden loop locals keep the maps alive past the next baseline
+  private static int count(EmbeddingsParser ep) {
+    int cnt=0;
+    for( HashMap<BufferedBytes,BufferedBytes> m: ep._maps ) cnt += m.size();
+    return cnt;
+  }
+
+  // heap in use once garbage is gone; gc until usage stops dropping, workers of a pool that was just shut down
+  // may not have let go of their last task yet
+  private static long usedHeap() {
+    Runtime rt = Runtime.getRuntime();
+    long used=Long.MAX_VALUE;
+    for(int i=0;i<10;++i) {
+      System.gc();
+      long u = rt.totalMemory() - rt.freeMemory();
+      if( u >= used ) break;
+      used=u;
+      try { Thread.sleep(20); } catch( InterruptedException ignore ) { }
+    }
+    return used;
+  }
+
+  private static long gcMillis() {
+    long ms=0;
+    for( GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans() )
+      ms += Math.max(0,gc.getCollectionTime());
+    return ms;
+  }
+}
@@ -0,0 +1,87 @@
+package embeddings;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static embeddings.EmbeddingsParser.NBYTES;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+public class OverlayTest {
+  static final int VEC_SZ=8;
+  static final float EPS=1e-4f;
+
+  static String writeBin(int nwords, int nchks) throws IOException { return writeBin(nwords,VEC_SZ,nchks); }
+
+  // nwords words "w0", "w1", ... with random quantized vectors; scale is 1e-4 and shift is -500000
+  static String writeBin(int nwords, int vec_sz, int nchks) throws IOException {
+    Random r = new Random(42);
+    BufferedBytes[] recs = new BufferedBytes[nwords];
+    for(int i=0;i<nwords;++i) {
+      byte[] w = ("w" + i).getBytes(UTF_8);
+      byte[] rec = new byte[w.length + NBYTES*vec_sz];
+      System.arraycopy(w,0,rec,0,w.length);
+      for(int j=w.length;j<rec.length;++j) rec[j] = (byte)r.nextInt(256);
+      for(int j=w.length+2;j<rec.length;j+=NBYTES) rec[j] &= 0x0F; // keep values < 1e6
+      recs[i] = new BufferedBytes(rec,0,w.length);
+    }
+    File f = File.createTempFile("overlay",".bin");
+    f.deleteOnExit();
+    EmbeddingsWriter.write(f.getPath(),false,(short)vec_sz,(byte)4,-500000,nchks,recs);
+    return f.getPath();
+  }
+
+  @Test public void testPutRemoveCompact() throws IOException {
+    WordEmbeddings em = WordEmbeddings.load(writeBin(100,4));
+    assertTrue(em.has("w7"));
+    assertFalse(em.has("brand_new"));
+
+    float[] w5 = new float[VEC_SZ];
+    em.get("w5",w5);
+    em.put("brand_new",w5);
+    assertTrue(em.has("brand_new"));
+    float[] res = new float[VEC_SZ];
+    em.get("brand_new",res);
+    assertArrayEquals(w5,res,EPS);
+    assertEquals("w5",em.mostSimilar("brand_new",1)[0].word());
+
+    // replace a base word
+    float[] neg = new float[VEC_SZ];
+    for(int i=0;i<VEC_SZ;++i) neg[i] = -w5[i];
+    em.put("w7",neg);
+    em.get("w7",res);
+    assertArrayEquals(neg,res,EPS);
+
+    // tombstone a base word; it must vanish from every read path
+    assertTrue(em.remove("w5"));
+    assertFalse(em.has("w5"));
+    assertFalse(em.remove("w5"));
+    for( WordEmbeddings.SimilarWord sw: em.mostSimilar("brand_new",99) )
+      assertNotEquals("w5",sw.word());
+    assertEquals(99,em.mostSimilar("brand_new",200).length); // 100 - w5 + brand_new - the query word
+
+    File f = File.createTempFile("compacted",".bin");
+    f.deleteOnExit();
+    em.compact(f.getPath());
+    WordEmbeddings em2 = WordEmbeddings.load(f.getPath());
+    assertFalse(em2.has("w5"));
+    em2.get("brand_new",res);
+    assertArrayEquals(w5,res,EPS);
+    em2.get("w7",res);
+    assertArrayEquals(neg,res,EPS);
+    float[] a = new float[VEC_SZ];
+    em.get("w42",a);
+    em2.get("w42",res);
+    assertArrayEquals(a,res,0);
+  }
+
+  @Test(expected = IllegalArgumentException.class) public void testOutOfRange() throws IOException {
+    WordEmbeddings em = WordEmbeddings.load(writeBin(10,1));
+    float[] v = new float[VEC_SZ];
+    v[3] = 1e6f; // (r + shift)*1e-4 can't reach this with 3 bytes
+    em.put("too_big",v);
+  }
+}
@@ -0,0 +1,53 @@
+package embeddings;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ParserTest {
+
+  // every reader count must index the same records, regardless of how chunks are dealt out
+  @Test public void testReaderCounts() throws IOException {
+    String path = OverlayTest.writeBin(1000,7);
+    HashMap<BufferedBytes,BufferedBytes> expected = flatten(EmbeddingsParser.parse(path,1));
+    assertEquals(1000,expected.size());
+    for( int nreaders: new int[]{2,3,7,64} ) {
+      HashMap<BufferedBytes,BufferedBytes> actual = flatten(EmbeddingsParser.parse(path,nreaders));
+      assertEquals(expected.size(),actual.size());
+      for( BufferedBytes k: expected.keySet() ) {
+        BufferedBytes a = actual.get(k);
+        BufferedBytes e = expected.get(k);
+        for(int i=0;i<OverlayTest.VEC_SZ*EmbeddingsParser.NBYTES;++i)
+          assertEquals(e._buf[e._off+e._len+i],a._buf[a._off+a._len+i]);
+      }
+    }
+  }
+
+  @Test public void testSyntheticLongWords() throws IOException {
+    File f = File.createTempFile("synthetic",".bin");
+    f.deleteOnExit();
+    SyntheticBin gen = new SyntheticBin(5000,16);
+    gen._minLen=2;
+    gen._maxLen=400; // needs 2 byte string lengths
+    gen._meanLen=200;
+    gen._nchks=9;
+    long nbytes = gen.write(f.getPath());
+    assertEquals(nbytes,f.length());
+    EmbeddingsParser ep = EmbeddingsParser.parse(f.getPath(),3);
+    assertEquals(9,ep._nchks);
+    HashMap<BufferedBytes,BufferedBytes> map = flatten(ep);
+    assertEquals(5000,map.size()); // all words are unique
+    for( BufferedBytes bb: map.keySet() ) assertTrue(bb._len >= 2 && bb._len <= 401);
+  }
+
+  private static HashMap<BufferedBytes,BufferedBytes> flatten(EmbeddingsParser ep) {
+    HashMap<BufferedBytes,BufferedBytes> map = new HashMap<>();
+    for( HashMap<BufferedBytes,BufferedBytes> m: ep._maps ) map.putAll(m);
+    return map;
+  }
+}
@@ -0,0 +1,55 @@
+package embeddings;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SignatureTest {
+
+  @Test public void testRecallAndPersistence() throws IOException {
+    int nwords=20000;
+    String bin = OverlayTest.writeBin(nwords,64,16);
+    WordEmbeddings em = WordEmbeddings.load(bin);
+    em.useSignatures(256,7);
+    String[] probes = new String[20];
+    for(int i=0;i<probes.length;++i) probes[i] = "w" + (i*997);
+
+    int n=10;
+    double prev=0;
+    for( int k: new int[]{1,4,16,64} ) {
+      long start = System.nanoTime();
+      for( String p: probes ) em.mostSimilar(p,n,k);
+      double ms = (System.nanoTime() - start)/1e6/probes.length;
+      double recall = em.recall(probes,n,k);
+      System.out.println("k=" + k + "; recall=" + recall + "; ms/query=" + ms);
+      assertTrue("recall can only grow with k", recall >= prev);
+      prev=recall;
+    }
+    assertEquals(1.0,em.recall(probes,n,nwords),0);
+
+    File sig = new File(bin + ".sig");
+    sig.deleteOnExit();
+    em.saveSignatures(sig.getPath());
+    WordEmbeddings em2 = WordEmbeddings.load(bin);
+    em2.loadSignatures(sig.getPath());
+    for( String p: probes ) {
+      WordEmbeddings.SimilarWord[] a = em.mostSimilar(p,n,8);
+      WordEmbeddings.SimilarWord[] b = em2.mostSimilar(p,n,8);
+      assertEquals(a.length,b.length);
+      for(int i=0;i<a.length;++i) assertEquals(a[i].word(),b[i].word());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class) public void testWrongVocabulary() throws IOException {
+    WordEmbeddings em = WordEmbeddings.load(OverlayTest.writeBin(100,4));
+    em.useSignatures(64,1);
+    File sig = File.createTempFile("wrong",".sig");
+    sig.deleteOnExit();
+    em.saveSignatures(sig.getPath());
+    WordEmbeddings.load(OverlayTest.writeBin(101,4)).loadSignatures(sig.getPath());
+  }
+}
@@ -0,0 +1,81 @@
+package embeddings;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SortedVocabTest {
+
+  @Test public void testPrefixAndRange() throws IOException {
+    File f = File.createTempFile("synthetic",".bin");
+    f.deleteOnExit();
+    SyntheticBin gen = new SyntheticBin(30000,4);
+    gen._meanLen=4;
+    gen.write(f.getPath());
+    WordEmbeddings em = WordEmbeddings.load(f.getPath());
+    em.buildSortedIndex();
+
+    // ascii words sort the same as Strings
+    TreeSet<String> all = new TreeSet<>();
+    for( int id: em.idsInRange(null,null) ) all.add(em.word(id));
+    assertEquals(30000,all.size());
+    assertArrayEquals(all.toArray(),words(em,em.idsInRange(null,null)));
+
+    for( String p: new String[]{"","a","ab","zz","b","aaaa"} )
+      assertArrayEquals(p,expectedPrefix(all,p),words(em,em.idsWithPrefix(p)));
+    assertArrayEquals(all.subSet("ab","c").toArray(),words(em,em.idsInRange("ab","c")));
+    assertEquals(0,em.idsInRange("c","ab").length);
+
+    // ids are usable with get, and removed words drop out
+    String w = em.word(em.idsWithPrefix("b")[0]);
+    float[] a = new float[4], b = new float[4];
+    em.get(w,a);
+    em.get(em.idsWithPrefix("b")[0],b);
+    assertArrayEquals(a,b,0);
+    em.remove(w);
+    assertEquals(expectedPrefix(all,"b").length-1,em.idsWithPrefix("b").length);
+
+    File sorted = new File(f.getPath() + ".sorted");
+    sorted.deleteOnExit();
+    em.saveSortedIndex(sorted.getPath());
+    WordEmbeddings em2 = WordEmbeddings.load(f.getPath());
+    em2.loadSortedIndex(sorted.getPath());
+    assertArrayEquals(expectedPrefix(all,"ab"),words(em2,em2.idsWithPrefix("ab")));
+  }
+
+  // unsigned byte order, not signed: 0xC3 (start of a 2 byte UTF-8 char) sorts after every ascii byte
+  @Test public void testUnsignedOrder() {
+    BufferedBytes[] keys = new BufferedBytes[]{
+        new BufferedBytes(new byte[]{(byte)0xC3,(byte)0xA9}),
+        new BufferedBytes(new byte[]{'z'}),
+        new BufferedBytes(new byte[]{'a',(byte)0xFF}),
+        new BufferedBytes(new byte[]{'a'}),
+    };
+    SortedVocab sv = new SortedVocab(keys);
+    assertArrayEquals(new int[]{3,2,1,0},sv._ids);
+    assertArrayEquals(new int[]{3,2},sv.prefix(new byte[]{'a'}));
+    assertArrayEquals(new int[]{2},sv.prefix(new byte[]{'a',(byte)0xFF}));
+  }
+
+  private static Object[] words(WordEmbeddings em, int[] ids) {
+    String[] res = new String[ids.length];
+    for(int i=0;i<ids.length;++i) res[i] = em.word(ids[i]);
+    return res;
+  }
+
+  private static Object[] expectedPrefix(TreeSet<String> all, String p) {
+    ArrayList<String> res = new ArrayList<>();
+    for( String s: all.tailSet(p) ) {
+      if( !s.startsWith(p) ) break;
+      res.add(s);
+    }
+    return res.toArray();
+  }
+}
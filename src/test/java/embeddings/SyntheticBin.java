@@ -0,0 +1,118 @@
+package embeddings;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import static embeddings.EmbeddingsParser.NBYTES;
+
+/**
+ * Writes synthetic, but valid, .bin files so loads can be tested and timed without the multi-GB downloads.
+ *
+ * Word lengths are geometric with mean _meanLen, clipped to [_minLen,_maxLen]. Words are made unique by
+ * numbering the words of each length in base 26; when a length runs out of names the word grows by a letter.
+ * Vector values are uniform over the full 3-byte range.
+ *
+ * Records are streamed straight to disk, so files much larger than the heap can be generated.
+ */
+class SyntheticBin {
+  static final byte SCALE=6;
+  static final int SHIFT=-(1<<23); // values land in [-8.388608,8.388607]
+  static final long CHUNK_BYTES=4<<20; // real files use roughly 4MB chunks
+
+  int _nwords=100000;
+  short _vec_sz=300;
+  int _nchks=0; // 0 => as many chunks as needed for ~CHUNK_BYTES each
+  boolean _str_type=false; // true => 2 byte string lengths
+  int _minLen=1;
+  int _maxLen=20;
+  double _meanLen=7;
+  long _seed=42;
+
+  SyntheticBin() {}
+  SyntheticBin(int nwords, int vec_sz) { _nwords=nwords; _vec_sz=(short)vec_sz; }
+
+  /**
+   * @param path write the embeddings here
+   * @return number of bytes written
+   */
+  long write(String path) {
+    if( _minLen < 1 || _maxLen < _minLen ) throw new IllegalArgumentException("bad word lengths: [" + _minLen + "," + _maxLen + "]");
+    boolean str_type = _str_type || _maxLen+1 > 0xFF; // +1: a length may grow by one when its names run out
+    int stype = str_type?1:0;
+    int vbytes = NBYTES*_vec_sz;
+
+    // first pass: word lengths, so the chunk offsets can go into the header
+    int[] lens = new int[_nwords];
+    Namer namer = new Namer(_maxLen+1);
+    Random r = new Random(_seed);
+    long total=0;
+    for(int i=0;i<_nwords;++i) {
+      lens[i] = namer.next(drawLen(r),null,0);
+      total += (1+stype) + lens[i] + vbytes;
+    }
+    int nchks = _nchks > 0 ? _nchks : (int)Math.min(Short.MAX_VALUE,Math.max(1,total/CHUNK_BYTES));
+    nchks = Math.max(1,Math.min(nchks,_nwords));
+    long[] offs = new long[nchks];
+    int c=0;
+    long off=0;
+    for(int i=0;i<_nwords;++i) {
+      if( c < nchks && i==(int)((long)_nwords*c/nchks) ) offs[c++]=off;
+      off += (1+stype) + lens[i] + vbytes;
+    }
+
+    // second pass: regenerate the same words and random vectors straight to disk
+    namer = new Namer(_maxLen+1);
+    r = new Random(_seed);
+    Random vr = new Random(_seed+1);
+    byte[] rec = new byte[2 + _maxLen+1 + vbytes];
+    try( OutputStream os = new BufferedOutputStream(new FileOutputStream(path),1<<20) ) {
+      EmbeddingsWriter.writeHeader(os,str_type,_vec_sz,SCALE,SHIFT,offs);
+      for(int i=0;i<_nwords;++i) {
+        int len = lens[i];
+        int pos=0;
+        rec[pos++] = (byte)len;
+        if( str_type ) rec[pos++] = (byte)(len>>>8);
+        namer.next(drawLen(r),rec,pos);
+        pos += len;
+        for(int j=0;j<vbytes;++j) rec[pos++] = (byte)vr.nextInt(256);
+        os.write(rec,0,pos);
+      }
+    } catch( IOException e ) {
+      throw new RuntimeException(e);
+    }
+    return off + headerBytes(nchks);
+  }
+
+  static long headerBytes(int nchks) { return 1L + 2L + 1L + 3L + 2L + (nchks-1)*8L; }
+
+  private int drawLen(Random r) {
+    // geometric with mean _meanLen, starting at _minLen
+    double p = 1/Math.max(1,_meanLen-_minLen+1);
+    int len = _minLen + (int)(Math.log(1-r.nextDouble())/Math.log(1-Math.min(p,0.999999)));
+    return Math.min(len,_maxLen);
+  }
+
+  // hands out unique lower case names; names of each length are numbered in base 26
+  private static class Namer {
+    final long[] _cnt;
+    Namer(int maxLen) { _cnt = new long[maxLen+1]; }
+
+    // returns the actual length, and writes the name into buf[off..] unless buf is null
+    int next(int len, byte[] buf, int off) {
+      while( len < _cnt.length-1 && len < 14 && _cnt[len] >= pow26(len) ) len++; // all names of this length are taken
+      if( len==_cnt.length-1 && len < 14 && _cnt[len] >= pow26(len) ) throw new IllegalArgumentException("ran out of unique words; raise the max word length");
+      long n = _cnt[len]++;
+      if( buf!=null )
+        for(int i=len-1;i>=0;--i) {
+          buf[off+i] = (byte)('a' + (int)(n%26));
+          n /= 26;
+        }
+      return len;
+    }
+
+    private static long pow26(int len) { long p=1; for(int i=0;i<len;++i) p*=26; return p; }
+  }
+}
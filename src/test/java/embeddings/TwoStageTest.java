@@ -0,0 +1,47 @@
+package embeddings;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TwoStageTest {
+
+  @Test public void testRecall() throws IOException {
+    int nwords=20000;
+    WordEmbeddings em = WordEmbeddings.load(OverlayTest.writeBin(nwords,64,16));
+    em.useProjection(16,1234);
+    String[] probes = new String[20];
+    for(int i=0;i<probes.length;++i) probes[i] = "w" + (i*997);
+
+    int n=10;
+    double prev=0;
+    for( int k: new int[]{1,4,16,64} ) {
+      long start = System.nanoTime();
+      for( String p: probes ) em.mostSimilar(p,n,k);
+      double ms = (System.nanoTime() - start)/1e6/probes.length;
+      double recall = em.recall(probes,n,k);
+      System.out.println("k=" + k + "; recall=" + recall + "; ms/query=" + ms);
+      assertTrue("recall can only grow with k", recall >= prev);
+      prev=recall;
+    }
+    // a shortlist of the whole vocabulary is an exact search
+    assertEquals(1.0,em.recall(probes,n,nwords),0);
+  }
+
+  @Test public void testOverlayVisible() throws IOException {
+    WordEmbeddings em = WordEmbeddings.load(OverlayTest.writeBin(1000,32,4));
+    em.useProjection(8,1);
+    float[] v = new float[32];
+    em.get("w3",v);
+    em.put("twin",v);
+    assertEquals("twin",em.mostSimilar("w3",1,1)[0].word());
+    em.remove("twin");
+    em.remove("w3");
+    for( WordEmbeddings.SimilarWord sw: em.mostSimilar("w4",998,1000) ) {
+      assertTrue(!sw.word().equals("w3") && !sw.word().equals("twin"));
+    }
+  }
+}